@@ -7,7 +7,94 @@ import lombok.Getter;
 @AllArgsConstructor
 public enum RpcConfigEnum {
     RPC_CONFIG_PATH("rpc.properties"),
-    ZK_ADDRESS("rpc.zookeeper.address");
+    ZK_ADDRESS("rpc.zookeeper.address"),
+    // 编解码时直接在 ByteBuf 上序列化/压缩，不经过中间 byte[]
+    CODEC_ZERO_COPY("rpc.codec.zero-copy"),
+    // 默认压缩算法：none / gzip / lz4
+    COMPRESS_TYPE("rpc.compress.type"),
+    // 消息体小于这个字节数时不压缩
+    COMPRESS_MIN_SIZE("rpc.compress.min-size"),
+    // 默认序列化方式：kryo / protostuff，单个服务可以在 RpcServiceConfig 中覆盖
+    SERIALIZATION_TYPE("rpc.serialization.type"),
+    // 进程内最多缓存多少个 Kryo 实例
+    KRYO_POOL_SIZE("rpc.serialization.kryo.pool-size"),
+    // 客户端发送请求使用的帧格式版本：1 / 2，服务端按收到的版本回复。
+    // 默认 1，可以和旧版本互通；连接内方法编号和批量发送只在 2 中生效，所有服务端都升级以后再改成 2
+    PROTOCOL_VERSION("rpc.protocol.version"),
+    // v2 消息体超过这个字节数时拆成多个续帧发送
+    CODEC_CHUNK_SIZE("rpc.codec.chunk-size"),
+    // 续帧拼接后的消息体最大字节数
+    CODEC_MAX_MESSAGE_SIZE("rpc.codec.max-message-size"),
+    // 合并写：多条消息攒在一起 flush，默认关闭
+    WRITE_COALESCING("rpc.transport.write-coalescing"),
+    // 合并写时攒够这么多次 flush 立即 flush
+    WRITE_COALESCING_MAX_MESSAGES("rpc.transport.write-coalescing.max-messages"),
+    // Linux 上可用时使用 epoll 原生传输，否则使用 NIO
+    TRANSPORT_NATIVE("rpc.transport.native"),
+    // ByteBuf 分配器：pooled / unpooled
+    TRANSPORT_ALLOCATOR("rpc.transport.allocator"),
+    // socket 接收/发送缓冲区大小，0 表示使用系统默认值
+    TRANSPORT_SO_RCVBUF("rpc.transport.so-rcvbuf"),
+    TRANSPORT_SO_SNDBUF("rpc.transport.so-sndbuf"),
+    // 服务端监听 socket 开启 SO_REUSEPORT，只对 epoll 生效
+    TRANSPORT_SO_REUSEPORT("rpc.transport.so-reuseport"),
+    // EventLoop 线程数，0 表示使用 Netty 默认值(CPU 核数 * 2)
+    SERVER_BOSS_THREADS("rpc.server.boss-threads"),
+    SERVER_WORKER_THREADS("rpc.server.worker-threads"),
+    // 服务方法在哪里执行：pinned(每个连接固定一个业务线程) / inline(IO 线程) / pool(共享的 work-stealing 线程池) / virtual(每个请求一个虚拟线程)
+    SERVER_DISPATCH("rpc.server.dispatch"),
+    // pinned 和 pool 方式的业务线程数，0 表示 CPU 核数 * 2
+    SERVER_DISPATCH_THREADS("rpc.server.dispatch-threads"),
+    CLIENT_WORKER_THREADS("rpc.client.worker-threads"),
+    // 客户端到每个服务地址最多建立几个连接
+    CLIENT_CONNECTIONS_PER_ADDRESS("rpc.client.connections-per-address"),
+    // 连接池中选择连接的方式：least-pending / round-robin
+    CLIENT_CHANNEL_SELECT("rpc.client.channel-select"),
+    // 连接断开后后台重连：第一次等待的毫秒数，之后每次翻倍，不超过最大值
+    CLIENT_RECONNECT_INITIAL_DELAY_MS("rpc.client.reconnect.initial-delay-ms"),
+    CLIENT_RECONNECT_MAX_DELAY_MS("rpc.client.reconnect.max-delay-ms"),
+    // 最多重连几次，0 表示不在后台重连
+    CLIENT_RECONNECT_MAX_ATTEMPTS("rpc.client.reconnect.max-attempts"),
+    // 调用的默认超时毫秒数，RpcServiceConfig 和 RpcContext 中可以单独设置
+    CLIENT_TIMEOUT_MS("rpc.client.timeout-ms"),
+    // 超时时间轮每一格的毫秒数，超时的实际精度不会高于这个值
+    CLIENT_TIMEOUT_TICK_MS("rpc.client.timeout-tick-ms"),
+    // 把同一连接上短时间内的多个请求打包成一个批量帧发送
+    CLIENT_BATCHING("rpc.client.batching"),
+    // 一个批量帧最多包含的请求数
+    CLIENT_BATCHING_MAX_MESSAGES("rpc.client.batching.max-messages"),
+    // 第一条请求最多等待多少微秒凑批，实际等待时间按请求到达的速度调整
+    CLIENT_BATCHING_MAX_LINGER_US("rpc.client.batching.max-linger-us"),
+    // 幂等方法在这个分位数的耗时内没有收到响应时，向另一个服务端发送对冲请求
+    CLIENT_HEDGING("rpc.client.hedging"),
+    CLIENT_HEDGING_PERCENTILE("rpc.client.hedging.percentile"),
+    // 对冲请求数最多占幂等请求数的比例
+    CLIENT_HEDGING_BUDGET_RATIO("rpc.client.hedging.budget-ratio"),
+    // 按 RTT 自适应限制发往每个服务端的并发请求数，超过上限的请求立即失败
+    CLIENT_CONCURRENCY_LIMIT("rpc.client.concurrency-limit"),
+    CLIENT_CONCURRENCY_LIMIT_INITIAL("rpc.client.concurrency-limit.initial"),
+    CLIENT_CONCURRENCY_LIMIT_MAX("rpc.client.concurrency-limit.max"),
+    // 负载均衡策略：random / least-load
+    CLIENT_LOAD_BALANCE("rpc.client.load-balance"),
+    // 根据调用结果暂时摘除不健康的服务地址
+    CLIENT_OUTLIER_EJECTION("rpc.client.outlier-ejection"),
+    // 连续失败次数、统计窗口内的错误率、平均耗时超过中位数的倍数，满足任意一个即摘除
+    CLIENT_OUTLIER_CONSECUTIVE_FAILURES("rpc.client.outlier-ejection.consecutive-failures"),
+    CLIENT_OUTLIER_ERROR_RATE("rpc.client.outlier-ejection.error-rate"),
+    CLIENT_OUTLIER_LATENCY_FACTOR("rpc.client.outlier-ejection.latency-factor"),
+    // 第一次摘除的毫秒数，之后每次摘除时间递增
+    CLIENT_OUTLIER_BASE_EJECTION_MS("rpc.client.outlier-ejection.base-ejection-ms"),
+    // 最多摘除的服务地址百分比，超过时不再摘除
+    CLIENT_OUTLIER_MAX_EJECTION_PERCENT("rpc.client.outlier-ejection.max-ejection-percent"),
+    // 幂等方法没有拿到响应时的重试次数，RpcServiceConfig 中可以按服务设置
+    CLIENT_RETRY_MAX_RETRIES("rpc.client.retry.max-retries"),
+    // 第一次重试前最多等待的毫秒数，之后每次翻倍，不超过最大值；实际等待时间在 0 到这个值之间随机
+    CLIENT_RETRY_BACKOFF_MS("rpc.client.retry.backoff-ms"),
+    CLIENT_RETRY_MAX_BACKOFF_MS("rpc.client.retry.max-backoff-ms"),
+    // 重试请求数最多占幂等请求数的比例
+    CLIENT_RETRY_BUDGET_RATIO("rpc.client.retry.budget-ratio"),
+    // 客户端代理的实现方式：stub 为运行时生成的存根类，jdk 为 java.lang.reflect.Proxy
+    CLIENT_PROXY("rpc.client.proxy");
 
     private final String propertyValue;
 }
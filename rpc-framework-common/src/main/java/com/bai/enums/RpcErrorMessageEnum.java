@@ -12,7 +12,12 @@ public enum RpcErrorMessageEnum {
     SERVICE_INVOCATION_FAILURE("服务调用失败"),
     SERVICE_CAN_NOT_BE_FOUND("没有找到指定的服务"),
     SERVICE_NOT_IMPLEMENT_ANY_INTERFACE("注册的服务没有实现任何接口"),
-    REQUEST_NOT_MATCH_RESPONSE("返回结果错误！请求和返回的相应不匹配");
+    REQUEST_NOT_MATCH_RESPONSE("返回结果错误！请求和返回的相应不匹配"),
+    UNKNOWN_METHOD_ID("连接内没有定义这个方法编号"),
+    CHANNEL_CLOSED("请求所在的连接已经断开"),
+    REQUEST_TIMEOUT("请求超时，没有在规定时间内收到响应"),
+    CONCURRENCY_LIMIT_EXCEEDED("发往服务端的并发请求数已达上限"),
+    PROVIDER_PROBING("服务地址处于半开状态，正在等待探测请求的结果");
 
     private final String message;
 }
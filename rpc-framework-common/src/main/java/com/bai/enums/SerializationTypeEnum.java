@@ -6,7 +6,8 @@ import lombok.Getter;
 @Getter
 @AllArgsConstructor
 public enum SerializationTypeEnum {
-    KYRO((byte) 0x01, "kryo");
+    KYRO((byte) 0x01, "kryo"),
+    PROTOSTUFF((byte) 0x02, "protostuff");
 
     private final byte code;
     private final String name;
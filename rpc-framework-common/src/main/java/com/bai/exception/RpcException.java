@@ -7,6 +7,10 @@ public class RpcException extends RuntimeException {
         super(rpcErrorMessageEnum.getMessage() + ":" + detail);
     }
 
+    public RpcException(RpcErrorMessageEnum rpcErrorMessageEnum, String detail, Throwable cause) {
+        super(rpcErrorMessageEnum.getMessage() + ":" + detail, cause);
+    }
+
     public RpcException(String message, Throwable cause) {
         super(message, cause);
     }
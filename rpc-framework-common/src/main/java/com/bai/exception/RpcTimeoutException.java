@@ -0,0 +1,12 @@
+package com.bai.exception;
+
+import com.bai.enums.RpcErrorMessageEnum;
+
+/**
+ * 请求在超时时间内没有收到响应
+ */
+public class RpcTimeoutException extends RpcException {
+    public RpcTimeoutException(String detail) {
+        super(RpcErrorMessageEnum.REQUEST_TIMEOUT, detail);
+    }
+}
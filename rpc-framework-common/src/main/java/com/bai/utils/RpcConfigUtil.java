@@ -0,0 +1,51 @@
+package com.bai.utils;
+
+import com.bai.enums.RpcConfigEnum;
+
+import java.util.Properties;
+
+/**
+ * 读取 rpc.properties 中的配置项，文件只在第一次使用时加载一次
+ */
+public class RpcConfigUtil {
+    private static volatile Properties properties;
+
+    private RpcConfigUtil() {
+    }
+
+    /**
+     * 优先使用同名的 JVM 系统属性(-Dkey=value)，其次是 rpc.properties，最后是默认值
+     */
+    public static String getString(RpcConfigEnum rpcConfigEnum, String defaultValue) {
+        String key = rpcConfigEnum.getPropertyValue();
+        String value = System.getProperty(key, getProperties().getProperty(key));
+        return StringUtil.isBlank(value) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(RpcConfigEnum rpcConfigEnum, int defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(RpcConfigEnum rpcConfigEnum, long defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(RpcConfigEnum rpcConfigEnum, boolean defaultValue) {
+        String value = getString(rpcConfigEnum, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static Properties getProperties() {
+        if (properties == null) {
+            synchronized (RpcConfigUtil.class) {
+                if (properties == null) {
+                    Properties loaded = PropertiesFileUtil.readPropertiesFile(RpcConfigEnum.RPC_CONFIG_PATH.getPropertyValue());
+                    properties = loaded != null ? loaded : new Properties();
+                }
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,40 @@
+package com.bai.utils.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 令牌预算：每次正常请求存入 ratio 个令牌，额外的请求(对冲、重试)每次取走一个令牌，
+ * 令牌不足时不发送额外请求，所以额外请求不会超过正常请求的 ratio 倍。
+ * 令牌最多攒 maxTokens 个，内部以千分之一令牌为单位计数
+ */
+public class TokenBudget {
+    private static final long UNIT = 1000;
+    private final long deposit;
+    private final long max;
+    private final AtomicLong tokens;
+
+    public TokenBudget(double ratio, int maxTokens) {
+        this.deposit = (long) (ratio * UNIT);
+        this.max = maxTokens * UNIT;
+        this.tokens = new AtomicLong(max);
+    }
+
+    public void deposit() {
+        tokens.accumulateAndGet(deposit, (current, d) -> Math.min(max, current + d));
+    }
+
+    /**
+     * @return 是否取到了令牌
+     */
+    public boolean tryWithdraw() {
+        while (true) {
+            long current = tokens.get();
+            if (current < UNIT) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - UNIT)) {
+                return true;
+            }
+        }
+    }
+}
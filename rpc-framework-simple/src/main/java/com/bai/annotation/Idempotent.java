@@ -0,0 +1,14 @@
+package com.bai.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 标记幂等的服务方法，同一个请求执行多次和执行一次效果相同。
+ * 客户端只对幂等方法发送对冲请求和失败重试，标在接口上表示接口的所有方法都是幂等的
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Inherited
+public @interface Idempotent {
+}
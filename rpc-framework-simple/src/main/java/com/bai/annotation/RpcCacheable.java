@@ -0,0 +1,25 @@
+package com.bai.annotation;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 客户端缓存服务方法的返回值，相同参数的调用在过期之前直接使用缓存，不再发送请求。
+ * 适合配置、字典这类很少变化的查询；返回 null 和调用失败不缓存
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RpcCacheable {
+    /**
+     * 写入缓存后多久过期
+     */
+    long ttl() default 60;
+
+    TimeUnit timeUnit() default TimeUnit.SECONDS;
+
+    /**
+     * 这个方法最多缓存多少组参数的结果，超过时淘汰最近最少使用的
+     */
+    long maxEntries() default 1000;
+}
@@ -0,0 +1,13 @@
+package com.bai.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 相同参数的调用同时只发送一个请求：前一个调用还没有结果时，后来的调用直接等待它的结果。
+ * 只适用于幂等的查询方法，所有等待者拿到的是同一个返回对象
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SingleFlight {
+}
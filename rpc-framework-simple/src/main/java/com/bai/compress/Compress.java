@@ -1,8 +1,28 @@
 package com.bai.compress;
 
-//TODO
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 public interface Compress {
     byte[] compress(byte[] bytes);
 
     byte[] decompress(byte[] bytes);
+
+    /**
+     * 返回一个包装了 out 的压缩流，写入它的数据被压缩后写到 out。
+     * 关闭返回的流时会结束压缩并关闭 out。
+     *
+     * @param out 压缩结果的去向
+     * @return 压缩输出流
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * 返回一个包装了 in 的解压流，从它读出的就是解压后的数据。
+     *
+     * @param in 压缩数据的来源
+     * @return 解压输入流
+     */
+    InputStream decompress(InputStream in) throws IOException;
 }
@@ -0,0 +1,77 @@
+package com.bai.compress;
+
+import com.bai.compress.gzip.GzipCompress;
+import com.bai.compress.lz4.Lz4Compress;
+import com.bai.compress.none.NoneCompress;
+import com.bai.enums.CompressTypeEnum;
+import com.bai.enums.RpcConfigEnum;
+import com.bai.utils.RpcConfigUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按消息头中的 compress 字节保存压缩算法实例，所有实现都是无状态的，进程内共享一份
+ */
+@Slf4j
+public class CompressRegistry {
+    private static final Map<Byte, Compress> COMPRESS_MAP = new ConcurrentHashMap<>();
+    private static final int DEFAULT_MIN_SIZE = 1024;
+    /**
+     * 没有配置 rpc.compress.type 时使用的算法
+     */
+    private static final CompressTypeEnum DEFAULT_COMPRESS_TYPE = CompressTypeEnum.LZ4;
+    private static final byte CONFIGURED_CODE;
+    private static final int MIN_SIZE;
+
+    static {
+        register(CompressTypeEnum.NONE.getCode(), new NoneCompress());
+        register(CompressTypeEnum.GZIP.getCode(), new GzipCompress());
+        register(CompressTypeEnum.LZ4.getCode(), new Lz4Compress());
+        String name = RpcConfigUtil.getString(RpcConfigEnum.COMPRESS_TYPE, DEFAULT_COMPRESS_TYPE.getName());
+        CompressTypeEnum compressType = CompressTypeEnum.getByName(name);
+        if (compressType == null) {
+            log.error("未知的压缩算法[{}]，使用默认的[{}]", name, DEFAULT_COMPRESS_TYPE.getName());
+            compressType = DEFAULT_COMPRESS_TYPE;
+        }
+        CONFIGURED_CODE = compressType.getCode();
+        MIN_SIZE = RpcConfigUtil.getInt(RpcConfigEnum.COMPRESS_MIN_SIZE, DEFAULT_MIN_SIZE);
+    }
+
+    private CompressRegistry() {
+    }
+
+    /**
+     * 注册压缩算法，code 会原样写进消息头，通信双方必须注册相同的实现。
+     * v2 帧头只用 4 位表示压缩算法，所以编号必须在 0~15 之间
+     */
+    public static void register(byte code, Compress compress) {
+        if ((code & ~0x0F) != 0) {
+            throw new IllegalArgumentException("Compress code must be in [0, 15]: " + code);
+        }
+        COMPRESS_MAP.put(code, compress);
+    }
+
+    public static Compress getCompress(byte code) {
+        Compress compress = COMPRESS_MAP.get(code);
+        if (compress == null) {
+            throw new IllegalArgumentException("Unknown compress type: " + code);
+        }
+        return compress;
+    }
+
+    /**
+     * @return rpc.compress.type 配置的压缩算法
+     */
+    public static byte getConfiguredCode() {
+        return CONFIGURED_CODE;
+    }
+
+    /**
+     * @return 消息体达到这个字节数才值得压缩
+     */
+    public static int getMinSize() {
+        return MIN_SIZE;
+    }
+}
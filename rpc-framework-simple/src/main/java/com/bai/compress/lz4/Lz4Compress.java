@@ -0,0 +1,67 @@
+package com.bai.compress.lz4;
+
+import com.bai.compress.Compress;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * LZ4 压缩，压缩率不如 gzip，但压缩和解压都快一个数量级，适合 CPU 比带宽更紧张的场景。
+ * byte[] 接口和流接口使用同一种分块格式，两种编解码模式之间可以互通
+ */
+public class Lz4Compress implements Compress {
+    private static final int BLOCK_SIZE = 1024 * 64;
+    private static final int BUFFER_SIZE = 1024 * 4;
+    private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    @Override
+    public byte[] compress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream lz4 = compress(out)) {
+            lz4.write(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException("lz4 compress error", e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes is null");
+        }
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream();
+             InputStream lz4 = decompress(new ByteArrayInputStream(bytes))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = lz4.read(buffer)) > -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("lz4 decompress error", e);
+        }
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        return new LZ4BlockOutputStream(out, BLOCK_SIZE, COMPRESSOR);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return new LZ4BlockInputStream(in, DECOMPRESSOR);
+    }
+}
@@ -2,6 +2,8 @@ package com.bai.config;
 
 import lombok.*;
 
+import java.util.Map;
+
 @AllArgsConstructor
 @NoArgsConstructor
 @Getter
@@ -12,11 +14,23 @@ public class RpcServiceConfig {
     private String version = ""; // service version
     private String group = ""; // 当接口有多个实现类时，按组区分
     private Object service; // 目标服务
+    private String serialization; // 客户端调用这个服务时使用的序列化方式，为空时使用 rpc.serialization.type
+    private long timeout; // 客户端调用这个服务的超时毫秒数，0 时使用 rpc.client.timeout-ms
+    private Map<String, Long> methodTimeouts; // 按方法名单独设置的超时毫秒数，优先于 timeout
+    private int retries; // @Idempotent 方法没有拿到响应时的重试次数，0 时使用 rpc.client.retry.max-retries
 
     public String getRpcServiceName() {
         return this.getServiceName() + this.getGroup() + this.getVersion();
     }
 
+    /**
+     * 调用某个方法的超时毫秒数，0 表示没有设置
+     */
+    public long getTimeout(String methodName) {
+        Long methodTimeout = methodTimeouts == null ? null : methodTimeouts.get(methodName);
+        return methodTimeout != null ? methodTimeout : timeout;
+    }
+
     public String getServiceName() {
         // getCanonicalName()获取所传类从java语言规范定义的格式输出
         return this.service.getClass().getInterfaces()[0].getCanonicalName();
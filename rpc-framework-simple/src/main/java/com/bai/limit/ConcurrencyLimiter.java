@@ -0,0 +1,104 @@
+package com.bai.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一个服务端的并发请求数上限，按 TCP Vegas 的思路根据 RTT 调整：
+ * 用最小 RTT 近似服务端空闲时的耗时，limit * (1 - minRtt / rtt) 估算排在服务端的请求数，
+ * 排队少时增大上限，排队多或者请求失败时减小上限
+ */
+public class ConcurrencyLimiter {
+    // 每隔这么多个样本重新测量一次最小 RTT，服务端性能变化后上限能跟着变化
+    private static final int MIN_RTT_PROBE_SAMPLES = 1000;
+    private final int minLimit;
+    private final int maxLimit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile double limit;
+    private long minRttNanos = Long.MAX_VALUE;
+    private int samples;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * @return 没有超过上限时占用一个名额并返回 true，之后必须调用 onSuccess/onDropped/onIgnore 之一归还
+     */
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > (int) limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 收到了响应
+     */
+    public void onSuccess(long rttNanos) {
+        int current = inFlight.getAndDecrement();
+        update(rttNanos, current, false);
+    }
+
+    /**
+     * 超时、连接断开等没有收到响应的情况
+     */
+    public void onDropped() {
+        int current = inFlight.getAndDecrement();
+        update(0, current, true);
+    }
+
+    /**
+     * 请求被取消，不作为样本
+     */
+    public void onIgnore() {
+        inFlight.decrementAndGet();
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return 已经使用的名额比例，负载均衡优先选择比例低的服务端
+     */
+    public double load() {
+        return inFlight.get() / limit;
+    }
+
+    private synchronized void update(long rttNanos, int inFlightAtCompletion, boolean dropped) {
+        double current = limit;
+        double log = Math.max(1, Math.log10(current));
+        double next;
+        if (dropped) {
+            next = current - log;
+        } else {
+            if (++samples >= MIN_RTT_PROBE_SAMPLES) {
+                samples = 0;
+                minRttNanos = rttNanos;
+            }
+            minRttNanos = Math.min(minRttNanos, rttNanos);
+            if (inFlightAtCompletion * 2 < current) {
+                // 请求量远没到上限，RTT 说明不了上限是否合适
+                return;
+            }
+            double queue = Math.ceil(current * (1 - (double) minRttNanos / rttNanos));
+            if (queue <= log) {
+                next = current + 6 * log;
+            } else if (queue < 3 * log) {
+                next = current + log;
+            } else if (queue > 6 * log) {
+                next = current - log;
+            } else {
+                return;
+            }
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, next));
+    }
+}
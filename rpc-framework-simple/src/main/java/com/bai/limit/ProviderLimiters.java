@@ -0,0 +1,35 @@
+package com.bai.limit;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.utils.RpcConfigUtil;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 每个服务地址一个 ConcurrencyLimiter，发送请求和负载均衡共用，通过 SingletonFactory 获取
+ */
+public class ProviderLimiters {
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MAX_LIMIT = 1000;
+    private final int initialLimit = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_CONCURRENCY_LIMIT_INITIAL, DEFAULT_INITIAL_LIMIT);
+    private final int maxLimit = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_CONCURRENCY_LIMIT_MAX, DEFAULT_MAX_LIMIT);
+    // host:port - limiter，和注册中心中的服务地址格式相同
+    private final Map<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+
+    /**
+     * 是否开启并发限制，由 rpc.client.concurrency-limit 控制
+     */
+    public static boolean enabled() {
+        return RpcConfigUtil.getBoolean(RpcConfigEnum.CLIENT_CONCURRENCY_LIMIT, false);
+    }
+
+    public ConcurrencyLimiter get(InetSocketAddress address) {
+        return get(address.getHostString() + ":" + address.getPort());
+    }
+
+    public ConcurrencyLimiter get(String serviceUrl) {
+        return limiters.computeIfAbsent(serviceUrl, key -> new ConcurrencyLimiter(initialLimit, 1, maxLimit));
+    }
+}
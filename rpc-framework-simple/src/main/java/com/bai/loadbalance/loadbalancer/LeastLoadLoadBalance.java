@@ -0,0 +1,31 @@
+package com.bai.loadbalance.loadbalancer;
+
+import com.bai.factory.SingletonFactory;
+import com.bai.limit.ProviderLimiters;
+import com.bai.loadbalance.AbstractLoadBalance;
+import com.bai.remoting.dto.RpcRequest;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 随机取两个服务地址，选择并发名额使用比例更低的一个。
+ * 名额来自 ProviderLimiters，服务端变慢时它的上限会降低，新请求自然流向其他服务端
+ */
+public class LeastLoadLoadBalance extends AbstractLoadBalance {
+    private final ProviderLimiters providerLimiters = SingletonFactory.getInstance(ProviderLimiters.class);
+
+    @Override
+    protected String doSelect(List<String> serviceUrlAddresses, RpcRequest rpcRequest) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = serviceUrlAddresses.size();
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        String a = serviceUrlAddresses.get(first);
+        String b = serviceUrlAddresses.get(second);
+        return providerLimiters.get(a).load() <= providerLimiters.get(b).load() ? a : b;
+    }
+}
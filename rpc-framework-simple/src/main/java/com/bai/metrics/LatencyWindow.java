@@ -0,0 +1,60 @@
+package com.bai.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近 SIZE 次调用的耗时，用于估算分位数。
+ * 写入只是一次数组赋值；分位数每新增 SIZE / 4 个样本才重新排序计算一次
+ */
+public class LatencyWindow {
+    private static final int SIZE = 256;
+    private static final int MASK = SIZE - 1;
+    // 样本太少时分位数没有意义
+    private static final int MIN_SAMPLES = 32;
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+    private final AtomicLong count = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(0, 0, 0);
+
+    public void record(long nanos) {
+        samples.set((int) count.getAndIncrement() & MASK, nanos);
+    }
+
+    /**
+     * @param percentile 0 到 100
+     * @return 分位数对应的纳秒数，样本不够时返回 0
+     */
+    public long percentile(double percentile) {
+        long n = count.get();
+        if (n < MIN_SAMPLES) {
+            return 0;
+        }
+        Snapshot current = snapshot;
+        if (current.percentile == percentile && n - current.count < SIZE / 4) {
+            return current.value;
+        }
+        int size = (int) Math.min(n, SIZE);
+        long[] sorted = new long[size];
+        for (int i = 0; i < size; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.min(size - 1, Math.ceil(percentile / 100 * size) - 1);
+        long value = sorted[Math.max(index, 0)];
+        snapshot = new Snapshot(percentile, n, value);
+        return value;
+    }
+
+    private static final class Snapshot {
+        private final double percentile;
+        private final long count;
+        private final long value;
+
+        private Snapshot(double percentile, long count, long value) {
+            this.percentile = percentile;
+            this.count = count;
+            this.value = value;
+        }
+    }
+}
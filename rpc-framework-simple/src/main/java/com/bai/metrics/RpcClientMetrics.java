@@ -0,0 +1,76 @@
+package com.bai.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端调用的计数，通过 SingletonFactory 获取，进程内共享一份
+ */
+public class RpcClientMetrics {
+    // 超时的请求数
+    private final LongAdder timeouts = new LongAdder();
+    // 发出的对冲请求数
+    private final LongAdder hedges = new LongAdder();
+    // 发出的重试请求数
+    private final LongAdder retries = new LongAdder();
+    // @RpcCacheable 方法的缓存命中和未命中次数
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    // @SingleFlight 方法中等待已有请求、没有发出新请求的调用次数
+    private final LongAdder singleFlightJoins = new LongAdder();
+    // 方法签名 - 最近的调用耗时
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+
+    public void recordTimeout() {
+        timeouts.increment();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public void recordHedge() {
+        hedges.increment();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public void recordSingleFlightJoin() {
+        singleFlightJoins.increment();
+    }
+
+    public long getSingleFlightJoins() {
+        return singleFlightJoins.sum();
+    }
+
+    public LatencyWindow latency(String methodKey) {
+        return latencies.computeIfAbsent(methodKey, key -> new LatencyWindow());
+    }
+}
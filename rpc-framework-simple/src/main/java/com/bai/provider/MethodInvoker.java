@@ -0,0 +1,43 @@
+package com.bai.provider;
+
+import lombok.Getter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * 绑定了服务对象的方法调用器，发布服务时为每个方法创建一次。
+ * 底层是适配成 (Object[])Object 的 MethodHandle，调用时不再查找方法，也不经过 Method.invoke
+ */
+@Getter
+public final class MethodInvoker {
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final MethodType GENERIC_TYPE = MethodType.methodType(Object.class, Object[].class);
+
+    private final Object service;
+    private final Method method;
+    @Getter(lombok.AccessLevel.NONE)
+    private final MethodHandle handle;
+
+    public MethodInvoker(Object service, Method method) throws IllegalAccessException {
+        this.service = service;
+        this.method = method;
+        // 接口或实现类不是 public 的时候也允许调用
+        method.setAccessible(true);
+        this.handle = MethodHandles.lookup().unreflect(method)
+                .bindTo(service)
+                .asSpreader(Object[].class, method.getParameterCount())
+                .asType(GENERIC_TYPE);
+    }
+
+    /**
+     * @param args 方法参数，没有参数时可以是 null
+     * @return 方法的返回值，基本类型装箱，void 方法返回 null
+     * @throws Throwable 服务方法抛出的异常原样抛出
+     */
+    public Object invoke(Object[] args) throws Throwable {
+        return (Object) handle.invokeExact(args == null ? NO_ARGS : args);
+    }
+}
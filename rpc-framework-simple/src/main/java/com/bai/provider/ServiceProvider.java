@@ -1,6 +1,7 @@
 package com.bai.provider;
 
 import com.bai.config.RpcServiceConfig;
+import com.bai.remoting.dto.RpcRequest;
 
 /**
  * 存储并提供服务对象
@@ -17,6 +18,12 @@ public interface ServiceProvider {
      */
     Object getService(String rpcServiceName);
 
+    /**
+     * @param rpcRequest 带完整方法描述的请求
+     * @return 添加服务时已经创建好的方法调用器
+     */
+    MethodInvoker getMethodInvoker(RpcRequest rpcRequest);
+
     /**
      * @param rpcServiceConfig rpc服务相关属性
      */
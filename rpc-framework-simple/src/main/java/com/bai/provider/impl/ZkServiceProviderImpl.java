@@ -3,16 +3,22 @@ package com.bai.provider.impl;
 import com.bai.config.RpcServiceConfig;
 import com.bai.enums.RpcErrorMessageEnum;
 import com.bai.exception.RpcException;
+import com.bai.provider.MethodInvoker;
 import com.bai.provider.ServiceProvider;
 import com.bai.registry.ServiceRegistry;
 import com.bai.registry.zk.ZkServiceRegistryImpl;
+import com.bai.remoting.dto.RpcRequest;
 import com.bai.remoting.transport.netty.server.NettyRpcServer;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -23,11 +29,17 @@ public class ZkServiceProviderImpl implements ServiceProvider {
      * value: service object
      */
     private final Map<String, Object> serviceMap;
+    /**
+     * key: 服务接口名 + group + version + 方法签名
+     * value: 绑定了服务对象的方法调用器，添加服务时创建
+     */
+    private final Map<InvokerKey, MethodInvoker> invokerMap;
     private final Set<String> registeredService;
     private final ServiceRegistry serviceRegistry;
 
     public ZkServiceProviderImpl() {
         serviceMap = new ConcurrentHashMap<>();
+        invokerMap = new ConcurrentHashMap<>();
         registeredService = ConcurrentHashMap.newKeySet();
         serviceRegistry = new ZkServiceRegistryImpl();
     }
@@ -40,6 +52,7 @@ public class ZkServiceProviderImpl implements ServiceProvider {
         }
         registeredService.add(rpcServiceName);// com.bai.HelloServicetest2version2
         serviceMap.put(rpcServiceName, rpcServiceConfig.getService()); //com.bai.HelloServicetest2version2 -> {HelloServiceImpl@560}
+        addMethodInvokers(rpcServiceConfig);
         log.info("添加服务：[{}] 和接口：[{}]", rpcServiceName, rpcServiceConfig.getService().getClass().getInterfaces());
     }
 
@@ -52,6 +65,19 @@ public class ZkServiceProviderImpl implements ServiceProvider {
         return service;
     }
 
+    @Override
+    public MethodInvoker getMethodInvoker(RpcRequest rpcRequest) {
+        MethodInvoker invoker = invokerMap.get(new InvokerKey(rpcRequest.getInterfaceName(), rpcRequest.getGroup(),
+                rpcRequest.getVersion(), rpcRequest.getMethodName(), rpcRequest.getParamTypes()));
+        if (invoker == null) {
+            // 区分服务不存在和方法不存在
+            getService(rpcRequest.getRpcServiceName());
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE,
+                    "no such method:" + rpcRequest.getMethodName() + Arrays.toString(rpcRequest.getParamTypes()));
+        }
+        return invoker;
+    }
+
     @Override
     public void publishService(RpcServiceConfig rpcServiceConfig) {
         try {
@@ -62,4 +88,63 @@ public class ZkServiceProviderImpl implements ServiceProvider {
             log.error("在获取主机地址时发生了错误", e);
         }
     }
+
+    /**
+     * 为服务接口的每个方法创建调用器，接口方法由服务对象的实现分派
+     */
+    private void addMethodInvokers(RpcServiceConfig rpcServiceConfig) {
+        Object service = rpcServiceConfig.getService();
+        for (Method method : service.getClass().getInterfaces()[0].getMethods()) {
+            if (Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            try {
+                invokerMap.put(new InvokerKey(rpcServiceConfig.getServiceName(), rpcServiceConfig.getGroup(),
+                        rpcServiceConfig.getVersion(), method.getName(), method.getParameterTypes()), new MethodInvoker(service, method));
+            } catch (IllegalAccessException e) {
+                throw new RpcException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static final class InvokerKey {
+        private final String serviceName;
+        private final String group;
+        private final String version;
+        private final String methodName;
+        private final Class<?>[] paramTypes;
+        private final int hash;
+
+        private InvokerKey(String serviceName, String group, String version, String methodName, Class<?>[] paramTypes) {
+            this.serviceName = serviceName;
+            this.group = group;
+            this.version = version;
+            this.methodName = methodName;
+            this.paramTypes = paramTypes == null ? new Class<?>[0] : paramTypes;
+            int h = Objects.hashCode(serviceName);
+            h = 31 * h + Objects.hashCode(group);
+            h = 31 * h + Objects.hashCode(version);
+            h = 31 * h + Objects.hashCode(methodName);
+            this.hash = 31 * h + Arrays.hashCode(this.paramTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof InvokerKey)) {
+                return false;
+            }
+            InvokerKey that = (InvokerKey) o;
+            return hash == that.hash && Objects.equals(serviceName, that.serviceName) && Objects.equals(group, that.group)
+                    && Objects.equals(version, that.version) && Objects.equals(methodName, that.methodName)
+                    && Arrays.equals(paramTypes, that.paramTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package com.bai.proxy;
+
+import java.util.Arrays;
+
+/**
+ * 一次调用的参数，按值比较，参数中的数组也按内容比较
+ */
+final class CallArguments {
+    private final Object[] args;
+    private final int hash;
+
+    CallArguments(Object[] args) {
+        this.args = args == null ? new Object[0] : args.clone();
+        this.hash = Arrays.deepHashCode(this.args);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CallArguments && Arrays.deepEquals(args, ((CallArguments) o).args);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
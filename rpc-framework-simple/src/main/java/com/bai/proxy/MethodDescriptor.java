@@ -0,0 +1,50 @@
+package com.bai.proxy;
+
+import com.bai.annotation.Idempotent;
+import com.bai.config.RpcServiceConfig;
+import lombok.Getter;
+import org.reactivestreams.Publisher;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+
+/**
+ * 代理方法构建请求需要的信息，每个方法只计算一次，调用时不再反射
+ */
+@Getter
+final class MethodDescriptor {
+    private final Method method;
+    private final String interfaceName;
+    private final String methodName;
+    private final Class<?>[] paramTypes;
+    private final Class<?> returnType;
+    // 用于查找连接内的方法编号
+    private final String methodKey;
+    private final boolean idempotent;
+    // 返回 Publisher 的流式方法
+    private final boolean stream;
+    // 返回 CompletableFuture/CompletionStage 的异步方法
+    private final boolean async;
+
+    /**
+     * @throws IllegalArgumentException 方法返回 Future。服务端只会等待 CompletionStage 的结果，Future 对象会被原样序列化
+     */
+    MethodDescriptor(Method method, RpcServiceConfig rpcServiceConfig) {
+        if (method.getReturnType() == Future.class) {
+            throw new IllegalArgumentException("rpc method must return CompletableFuture or CompletionStage instead of Future: " + method);
+        }
+        this.method = method;
+        this.interfaceName = method.getDeclaringClass().getName();
+        this.methodName = method.getName();
+        this.paramTypes = method.getParameterTypes();
+        this.returnType = method.getReturnType();
+        this.methodKey = interfaceName + "#" + rpcServiceConfig.getGroup() + "#" + rpcServiceConfig.getVersion()
+                + "#" + methodName + Arrays.toString(paramTypes);
+        this.idempotent = method.isAnnotationPresent(Idempotent.class) || method.getDeclaringClass().isAnnotationPresent(Idempotent.class);
+        this.stream = Publisher.class.isAssignableFrom(returnType);
+        this.async = returnType == CompletableFuture.class || returnType == CompletionStage.class;
+    }
+}
@@ -1,21 +1,25 @@
 package com.bai.proxy;
 
 import com.bai.config.RpcServiceConfig;
+import com.bai.enums.RpcConfigEnum;
 import com.bai.enums.RpcErrorMessageEnum;
 import com.bai.enums.RpcResponseCodeEnum;
 import com.bai.exception.RpcException;
 import com.bai.remoting.dto.RpcRequest;
 import com.bai.remoting.dto.RpcResponse;
 import com.bai.remoting.transport.RpcRequestTransport;
-import com.bai.remoting.transport.netty.client.NettyRpcClient;
-import lombok.SneakyThrows;
+import com.bai.utils.RpcConfigUtil;
 import lombok.extern.slf4j.Slf4j;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
-import java.util.UUID;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 /**
  * 服务器接收客户端消息，根据客户端消息调用相应的方法，然后将结果返回给客户端。
@@ -24,10 +28,16 @@ import java.util.concurrent.CompletableFuture;
 @Slf4j
 public class RpcClientProxy implements InvocationHandler {
     private static final String INTERFACE_NAME = "interfaceName";
+    private static final String STUB_PROXY = "stub";
+    private static final String JDK_PROXY = "jdk";
 
     //用于向服务器发送请求。有两种实现：socket and netty
     private final RpcRequestTransport rpcRequestTransport; // NettyRpcClient
     private final RpcServiceConfig rpcServiceConfig;
+    // 每个方法构建请求需要的信息只计算一次
+    private final Map<Method, MethodDescriptor> descriptors = new ConcurrentHashMap<>();
+    private final RpcResultCache resultCache = new RpcResultCache();
+    private final SingleFlightCalls singleFlightCalls = new SingleFlightCalls();
 
     public RpcClientProxy(RpcRequestTransport rpcRequestTransport) {
         this.rpcRequestTransport = rpcRequestTransport;
@@ -40,20 +50,61 @@ public class RpcClientProxy implements InvocationHandler {
     }
 
     /**
-     * newProxyInstance方法一共有三个参数
-     * loader :类加载器，用于加载代理对象。
-     * interfaces : 被代理类实现的一些接口；
-     * h : 实现了 InvocationHandler 接口的对象；
+     * 默认为接口生成存根类(见 RpcStubGenerator)，rpc.client.proxy=jdk、接口不是 public
+     * 或者存根类无法在接口的类加载器中链接时使用 JDK 动态代理
      *
      * @param clazz 被代理类实现的一些接口
      * @param <T>
      * @return 代理对象
      */
-    @SuppressWarnings("unchecked")
     public <T> T getProxy(Class<T> clazz) {
+        if (!JDK_PROXY.equals(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_PROXY, STUB_PROXY))
+                && Modifier.isPublic(clazz.getModifiers())) {
+            try {
+                return getStub(clazz);
+            } catch (LinkageError e) {
+                // 容器或插件环境中接口的类加载器可能看不到 RpcStubInvoker
+                log.warn("无法为[{}]生成存根类，使用 JDK 动态代理", clazz.getName(), e);
+            }
+        }
+        return getJdkProxy(clazz);
+    }
+
+    /**
+     * newProxyInstance方法一共有三个参数
+     * loader :类加载器，用于加载代理对象。
+     * interfaces : 被代理类实现的一些接口；
+     * h : 实现了 InvocationHandler 接口的对象；
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getJdkProxy(Class<T> clazz) {
         return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[]{clazz}, this);
     }
 
+    /**
+     * 使用生成的存根类，存根按下标直接找到方法的 MethodDescriptor，调用路径上没有反射
+     *
+     * @throws RpcException 存根类无法实例化
+     * @throws LinkageError 接口的类加载器看不到 RpcStubInvoker 等情况下无法定义存根类
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getStub(Class<T> clazz) {
+        RpcStubGenerator.Stub stub = RpcStubGenerator.stub(clazz);
+        Method[] methods = stub.getMethods();
+        MethodDescriptor[] descriptors = new MethodDescriptor[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            // Object 的方法在本地处理，没有 descriptor
+            descriptors[i] = methods[i].getDeclaringClass() == Object.class ? null : descriptor(methods[i]);
+        }
+        try {
+            return (T) stub.newInstance((proxy, index, args) -> descriptors[index] != null
+                    ? invoke(descriptors[index], args)
+                    : invokeObjectMethod(proxy, methods[index], args));
+        } catch (ReflectiveOperationException e) {
+            throw new RpcException("无法创建[" + clazz.getName() + "]的存根对象", e);
+        }
+    }
+
     /**
      * 要实现动态代理的话，还必须需要实现InvocationHandler 来自定义处理逻辑，当使用代理对象调用方法时，实际上会调用此方法。
      * 但是代理对象是通过getProxy方法获得的对象。
@@ -64,40 +115,115 @@ public class RpcClientProxy implements InvocationHandler {
      * @return
      * @throws Throwable
      */
-    @SneakyThrows
-    @SuppressWarnings("unchecked")
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-        log.info("进入代理类的invoke()方法，这个代理对象是[{}]", proxy.getClass().getName());
-        log.info("这一次调用的方法是 method: [{}]", method.getName()); // method: [hello]
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+        return invoke(descriptor(method), args);
+    }
 
-        // RpcRequest(requestId=e1c7a92a-2154-43a9-8dfd-bedec8e361f9,
-        // interfaceName=com.bai.HelloService,
+    /**
+     * equals、hashCode、toString 不发往服务端，按代理对象本身的身份处理，两种代理方式的行为一致
+     */
+    private static Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return proxy.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                throw new UnsupportedOperationException(method.toString());
+        }
+    }
+
+    private Object invoke(MethodDescriptor descriptor, Object[] args) throws Throwable {
+        // RpcRequest(interfaceName=com.bai.HelloService,
         // methodName=hello,
         // parameters=[HelloEntity(message=111, description=222)],
         // paramTypes=[class com.bai.HelloEntity],
         // version=version2,
         // group=test2)
         RpcRequest rpcRequest = RpcRequest.builder()
-                .methodName(method.getName())
+                .methodName(descriptor.getMethodName())
                 .parameters(args)
-                .interfaceName(method.getDeclaringClass().getName())
-                .paramTypes(method.getParameterTypes())
-                .requestId(UUID.randomUUID().toString())
+                .interfaceName(descriptor.getInterfaceName())
+                .paramTypes(descriptor.getParamTypes())
                 .group(rpcServiceConfig.getGroup())
                 .version(rpcServiceConfig.getVersion())
+                .methodKey(descriptor.getMethodKey())
+                .timeout(RpcContext.current().takeTimeout(rpcServiceConfig.getTimeout(descriptor.getMethodName())))
+                .idempotent(descriptor.isIdempotent())
+                .retries(rpcServiceConfig.getRetries())
                 .build();
-        log.info("构建好了rpcRequest [{}]", rpcRequest);
+        if (log.isDebugEnabled()) {
+            log.debug("构建好了rpcRequest [{}]", rpcRequest);
+        }
+
+        if (descriptor.isStream()) {
+            // 流式方法直接返回 Publisher，订阅时才发起调用
+            return rpcRequestTransport.sendStreamRequest(rpcRequest, rpcServiceConfig);
+        }
+
+        CompletableFuture<Object> resultFuture = invokeCached(descriptor.getMethod(), args, rpcRequest);
+        if (descriptor.isAsync()) {
+            // 异步接口直接返回 future，由 NettyRpcClientHandler 收到响应时完成
+            return resultFuture;
+        }
+        if (RpcContext.current().bindFuture(resultFuture)) {
+            // RpcContext.async 中的同步接口调用，结果通过 RpcContext 返回
+            return defaultValue(descriptor.getReturnType());
+        }
+        try {
+            return resultFuture.get();
+        } catch (ExecutionException e) {
+            // 连接失败、连接断开等传输层错误以 RpcException 抛给调用方
+            throw e.getCause();
+        }
+    }
+
+    private MethodDescriptor descriptor(Method method) {
+        return descriptors.computeIfAbsent(method, m -> new MethodDescriptor(m, rpcServiceConfig));
+    }
 
-        RpcResponse<Object> rpcResponse = null;
-        if (rpcRequestTransport instanceof NettyRpcClient) {
-            CompletableFuture<RpcResponse<Object>> completableFuture = (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest);
-            rpcResponse = completableFuture.get();
+    /**
+     * 标记了 @RpcCacheable 的方法先查缓存，没有命中时调用成功后写入缓存；
+     * 标记了 @SingleFlight 的方法在相同参数的调用进行中时直接等待它的结果
+     */
+    private CompletableFuture<Object> invokeCached(Method method, Object[] args, RpcRequest rpcRequest) {
+        Object cached = resultCache.get(method, args);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<Object> resultFuture = singleFlightCalls.execute(method, args, () -> invokeAsync(rpcRequest));
+        if (resultCache.cacheable(method)) {
+            resultFuture.thenAccept(result -> resultCache.put(method, args, result));
         }
-        this.check(rpcResponse, rpcRequest);
-        log.info("动态代理完成，结果也已经收到了，现在返回...");
-        return rpcResponse.getData();
+        return resultFuture;
+    }
 
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Object> invokeAsync(RpcRequest rpcRequest) {
+        CompletableFuture<RpcResponse<Object>> completableFuture = (CompletableFuture<RpcResponse<Object>>) rpcRequestTransport.sendRpcRequest(rpcRequest, rpcServiceConfig);
+        return completableFuture.thenApply(rpcResponse -> {
+            this.check(rpcResponse, rpcRequest);
+            return rpcResponse.getData();
+        });
+    }
+
+    private static Object defaultValue(Class<?> returnType) {
+        if (!returnType.isPrimitive() || returnType == void.class) {
+            return null;
+        }
+        if (returnType == boolean.class) {
+            return false;
+        }
+        if (returnType == char.class) {
+            return '\0';
+        }
+        return Array.get(Array.newInstance(returnType, 1), 0);
     }
 
     private void check(RpcResponse<Object> rpcResponse, RpcRequest rpcRequest) {
@@ -105,10 +231,6 @@ public class RpcClientProxy implements InvocationHandler {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
 
-        if (!rpcRequest.getRequestId().equals(rpcResponse.getRequestId())) {
-            throw new RpcException(RpcErrorMessageEnum.REQUEST_NOT_MATCH_RESPONSE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
-        }
-
         if (rpcResponse.getCode() == null || !rpcResponse.getCode().equals(RpcResponseCodeEnum.SUCCESS.getCode())) {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, INTERFACE_NAME + ":" + rpcRequest.getInterfaceName());
         }
@@ -0,0 +1,84 @@
+package com.bai.proxy;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 当前线程的调用上下文，用于把同步接口的调用变成异步调用：
+ * <pre>
+ *     CompletableFuture&lt;String&gt; future = RpcContext.async(() -> helloService.hello(entity));
+ * </pre>
+ * 在 async 中通过代理对象发起的调用不会阻塞，代理方法立即返回默认值，响应通过返回的 future 获得。
+ * 也可以为当前线程的下一次调用单独设置超时：
+ * <pre>
+ *     RpcContext.timeout(200);
+ *     helloService.hello(entity);
+ * </pre>
+ */
+public final class RpcContext {
+    private static final ThreadLocal<RpcContext> LOCAL = ThreadLocal.withInitial(RpcContext::new);
+    private boolean async;
+    private CompletableFuture<?> future;
+    private long timeout;
+
+    private RpcContext() {
+    }
+
+    static RpcContext current() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 设置当前线程下一次 rpc 调用的超时毫秒数，优先于 RpcServiceConfig 中的配置
+     */
+    public static void timeout(long millis) {
+        current().timeout = millis;
+    }
+
+    /**
+     * 异步执行 call 中的 rpc 调用，call 中只能调用一次代理方法
+     *
+     * @return rpc 调用的结果
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CompletableFuture<T> async(Supplier<T> call) {
+        RpcContext context = current();
+        context.async = true;
+        context.future = null;
+        try {
+            call.get();
+            if (context.future == null) {
+                throw new IllegalStateException("no rpc call was made in RpcContext.async");
+            }
+            return (CompletableFuture<T>) context.future;
+        } finally {
+            context.async = false;
+            context.future = null;
+        }
+    }
+
+    /**
+     * 取出这次调用的超时，设置过的单次超时只生效一次
+     *
+     * @param configured RpcServiceConfig 中配置的超时
+     */
+    long takeTimeout(long configured) {
+        long millis = timeout;
+        timeout = 0;
+        return millis > 0 ? millis : configured;
+    }
+
+    /**
+     * 异步模式下由代理调用，消费掉这次异步标记，之后的调用恢复同步
+     *
+     * @return 是否处于异步模式
+     */
+    boolean bindFuture(CompletableFuture<?> future) {
+        if (!async) {
+            return false;
+        }
+        async = false;
+        this.future = future;
+        return true;
+    }
+}
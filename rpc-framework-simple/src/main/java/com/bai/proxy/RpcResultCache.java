@@ -0,0 +1,61 @@
+package com.bai.proxy;
+
+import com.bai.annotation.RpcCacheable;
+import com.bai.factory.SingletonFactory;
+import com.bai.metrics.RpcClientMetrics;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 代理对象上标记了 @RpcCacheable 的方法的返回值缓存，每个方法一个 Guava Cache，按参数值查找
+ */
+class RpcResultCache {
+    private final RpcClientMetrics metrics = SingletonFactory.getInstance(RpcClientMetrics.class);
+    // 方法 - 缓存，没有标记 @RpcCacheable 的方法对应 Optional.empty()
+    private final Map<Method, Optional<Cache<CallArguments, Object>>> caches = new ConcurrentHashMap<>();
+
+    /**
+     * @return 缓存的返回值，方法不可缓存或者没有命中时返回 null
+     */
+    Object get(Method method, Object[] args) {
+        Optional<Cache<CallArguments, Object>> cache = cache(method);
+        if (!cache.isPresent()) {
+            return null;
+        }
+        Object value = cache.get().getIfPresent(new CallArguments(args));
+        if (value != null) {
+            metrics.recordCacheHit();
+        } else {
+            metrics.recordCacheMiss();
+        }
+        return value;
+    }
+
+    void put(Method method, Object[] args, Object value) {
+        if (value != null) {
+            cache(method).ifPresent(cache -> cache.put(new CallArguments(args), value));
+        }
+    }
+
+    boolean cacheable(Method method) {
+        return cache(method).isPresent();
+    }
+
+    private Optional<Cache<CallArguments, Object>> cache(Method method) {
+        return caches.computeIfAbsent(method, m -> {
+            RpcCacheable cacheable = m.getAnnotation(RpcCacheable.class);
+            if (cacheable == null) {
+                return Optional.empty();
+            }
+            return Optional.of(CacheBuilder.newBuilder()
+                    .expireAfterWrite(cacheable.ttl(), cacheable.timeUnit())
+                    .maximumSize(cacheable.maxEntries())
+                    .build());
+        });
+    }
+}
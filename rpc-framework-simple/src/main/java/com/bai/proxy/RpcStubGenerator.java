@@ -0,0 +1,228 @@
+package com.bai.proxy;
+
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 运行时为服务接口生成具体的存根类，代替 java.lang.reflect.Proxy。
+ * 存根的每个方法把参数装进数组，连同方法下标一起交给 RpcStubInvoker，调用路径上没有反射和 Method 查找：
+ * <pre>
+ *     public String hello(HelloEntity hello) {
+ *         return (String) invoker.invoke(this, 3, new Object[]{hello});
+ *     }
+ * </pre>
+ * 和 java.lang.reflect.Proxy 一样，Object 的 equals、hashCode、toString 也交给 invoker。
+ * 字节码使用 spring-core 中重新打包的 ASM 生成，每个接口只生成一次，结果用 ClassValue 缓存在接口上
+ */
+final class RpcStubGenerator {
+    private static final String INVOKER = Type.getInternalName(RpcStubInvoker.class);
+    private static final String INVOKER_DESC = Type.getDescriptor(RpcStubInvoker.class);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    // 存根挂在接口的 Class 上，不会因为这里的静态引用让已卸载的应用的类加载器和存根类无法回收
+    private static final ClassValue<Stub> STUBS = new ClassValue<Stub>() {
+        @Override
+        protected Stub computeValue(Class<?> iface) {
+            return generate(iface);
+        }
+    };
+    private static final Method[] OBJECT_METHODS;
+
+    static {
+        try {
+            OBJECT_METHODS = new Method[]{
+                    Object.class.getMethod("equals", Object.class),
+                    Object.class.getMethod("hashCode"),
+                    Object.class.getMethod("toString")
+            };
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private RpcStubGenerator() {
+    }
+
+    /**
+     * @throws IllegalArgumentException 接口不是 public 的，生成的类无法访问
+     * @throws LinkageError             接口的类加载器看不到 RpcStubInvoker 等情况下无法定义存根类
+     */
+    static Stub stub(Class<?> iface) {
+        return STUBS.get(iface);
+    }
+
+    /**
+     * 生成的存根类和它实现的方法，methods[i] 对应调用时的下标 i
+     */
+    static final class Stub {
+        private final Constructor<?> constructor;
+        private final Method[] methods;
+
+        private Stub(Constructor<?> constructor, Method[] methods) {
+            this.constructor = constructor;
+            this.methods = methods;
+        }
+
+        Method[] getMethods() {
+            return methods;
+        }
+
+        Object newInstance(RpcStubInvoker invoker) throws ReflectiveOperationException {
+            return constructor.newInstance(invoker);
+        }
+    }
+
+    private static Stub generate(Class<?> iface) {
+        if (!iface.isInterface() || !Modifier.isPublic(iface.getModifiers())) {
+            throw new IllegalArgumentException("stub can only be generated for public interface: " + iface.getName());
+        }
+        // 父接口中签名相同的方法只实现一次；接口重新声明的 Object 方法仍然按 Object 的方法处理
+        Map<String, Method> unique = new LinkedHashMap<>();
+        for (Method method : OBJECT_METHODS) {
+            unique.put(method.getName() + Type.getMethodDescriptor(method), method);
+        }
+        for (Method method : iface.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers())) {
+                unique.putIfAbsent(method.getName() + Type.getMethodDescriptor(method), method);
+            }
+        }
+        List<Method> methods = new ArrayList<>(unique.values());
+        String className = iface.getName() + "$$RpcStub$" + COUNTER.incrementAndGet();
+        String internalName = className.replace('.', '/');
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC, internalName, null,
+                "java/lang/Object", new String[]{Type.getInternalName(iface)});
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "invoker", INVOKER_DESC, null, null).visitEnd();
+        writeConstructor(cw, internalName);
+        for (int i = 0; i < methods.size(); i++) {
+            writeMethod(cw, internalName, methods.get(i), i);
+        }
+        cw.visitEnd();
+
+        try {
+            Class<?> stubClass = new StubClassLoader(iface.getClassLoader()).define(className, cw.toByteArray());
+            return new Stub(stubClass.getConstructor(RpcStubInvoker.class), methods.toArray(new Method[0]));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeConstructor(ClassWriter cw, String internalName) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + INVOKER_DESC + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, internalName, "invoker", INVOKER_DESC);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void writeMethod(ClassWriter cw, String internalName, Method method, int index) {
+        Class<?>[] exceptionTypes = method.getExceptionTypes();
+        String[] exceptions = new String[exceptionTypes.length];
+        for (int i = 0; i < exceptionTypes.length; i++) {
+            exceptions[i] = Type.getInternalName(exceptionTypes[i]);
+        }
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, method.getName(), Type.getMethodDescriptor(method), null, exceptions);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETFIELD, internalName, "invoker", INVOKER_DESC);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitLdcInsn(index);
+        Type[] argumentTypes = Type.getArgumentTypes(method);
+        if (argumentTypes.length == 0) {
+            // 和 java.lang.reflect.Proxy 一样，没有参数时传 null
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        } else {
+            mv.visitLdcInsn(argumentTypes.length);
+            mv.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+            int slot = 1;
+            for (int i = 0; i < argumentTypes.length; i++) {
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitLdcInsn(i);
+                mv.visitVarInsn(argumentTypes[i].getOpcode(Opcodes.ILOAD), slot);
+                box(mv, argumentTypes[i]);
+                mv.visitInsn(Opcodes.AASTORE);
+                slot += argumentTypes[i].getSize();
+            }
+        }
+        mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, INVOKER, "invoke", "(Ljava/lang/Object;I[Ljava/lang/Object;)Ljava/lang/Object;", true);
+        Type returnType = Type.getReturnType(method);
+        if (returnType.getSort() == Type.VOID) {
+            mv.visitInsn(Opcodes.POP);
+            mv.visitInsn(Opcodes.RETURN);
+        } else {
+            unbox(mv, returnType);
+            mv.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void box(MethodVisitor mv, Type type) {
+        String wrapper = wrapper(type);
+        if (wrapper != null) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, wrapper, "valueOf", "(" + type.getDescriptor() + ")L" + wrapper + ";", false);
+        }
+    }
+
+    private static void unbox(MethodVisitor mv, Type type) {
+        String wrapper = wrapper(type);
+        if (wrapper == null) {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, type.getInternalName());
+            return;
+        }
+        mv.visitTypeInsn(Opcodes.CHECKCAST, wrapper);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, wrapper, type.getClassName() + "Value", "()" + type.getDescriptor(), false);
+    }
+
+    /**
+     * @return 基本类型对应的包装类，引用类型返回 null
+     */
+    private static String wrapper(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN:
+                return "java/lang/Boolean";
+            case Type.CHAR:
+                return "java/lang/Character";
+            case Type.BYTE:
+                return "java/lang/Byte";
+            case Type.SHORT:
+                return "java/lang/Short";
+            case Type.INT:
+                return "java/lang/Integer";
+            case Type.FLOAT:
+                return "java/lang/Float";
+            case Type.LONG:
+                return "java/lang/Long";
+            case Type.DOUBLE:
+                return "java/lang/Double";
+            default:
+                return null;
+        }
+    }
+
+    private static final class StubClassLoader extends ClassLoader {
+        private StubClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
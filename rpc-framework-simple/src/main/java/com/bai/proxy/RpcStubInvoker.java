@@ -0,0 +1,12 @@
+package com.bai.proxy;
+
+/**
+ * 生成的客户端存根把方法调用交给这里，方法用生成存根时确定的下标表示。
+ * 存根类由单独的类加载器定义，所以这个接口必须是 public 的
+ */
+public interface RpcStubInvoker {
+    /**
+     * @param proxy 被调用的存根对象，和 InvocationHandler 中的 proxy 参数一样
+     */
+    Object invoke(Object proxy, int methodIndex, Object[] args) throws Throwable;
+}
@@ -0,0 +1,68 @@
+package com.bai.proxy;
+
+import com.bai.annotation.SingleFlight;
+import com.bai.factory.SingletonFactory;
+import com.bai.metrics.RpcClientMetrics;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 代理对象上标记了 @SingleFlight 的方法正在进行中的调用，相同参数的调用共享一个请求
+ */
+class SingleFlightCalls {
+    private final RpcClientMetrics metrics = SingletonFactory.getInstance(RpcClientMetrics.class);
+    // 方法 - 进行中的调用，没有标记 @SingleFlight 的方法对应 Optional.empty()
+    private final Map<Method, Optional<Map<CallArguments, CompletableFuture<Object>>>> calls = new ConcurrentHashMap<>();
+
+    /**
+     * @param call 没有相同的调用在进行中时真正发起调用
+     */
+    CompletableFuture<Object> execute(Method method, Object[] args, Supplier<CompletableFuture<Object>> call) {
+        Optional<Map<CallArguments, CompletableFuture<Object>>> inFlight = calls.computeIfAbsent(method,
+                m -> m.isAnnotationPresent(SingleFlight.class) ? Optional.of(new ConcurrentHashMap<>()) : Optional.empty());
+        if (!inFlight.isPresent()) {
+            return call.get();
+        }
+        Map<CallArguments, CompletableFuture<Object>> futures = inFlight.get();
+        CallArguments key = new CallArguments(args);
+        CompletableFuture<Object> created = new CompletableFuture<>();
+        CompletableFuture<Object> existing = futures.putIfAbsent(key, created);
+        if (existing != null) {
+            metrics.recordSingleFlightJoin();
+            return copy(existing);
+        }
+        try {
+            call.get().whenComplete((result, cause) -> {
+                // 先移除再完成，之后到达的调用会发起新的请求
+                futures.remove(key, created);
+                complete(created, result, cause);
+            });
+        } catch (RuntimeException e) {
+            futures.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return copy(created);
+    }
+
+    /**
+     * 每个调用方拿到自己的 future，一个调用方取消不影响其他调用方
+     */
+    private static CompletableFuture<Object> copy(CompletableFuture<Object> shared) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        shared.whenComplete((result, cause) -> complete(future, result, cause));
+        return future;
+    }
+
+    private static void complete(CompletableFuture<Object> future, Object result, Throwable cause) {
+        if (cause != null) {
+            future.completeExceptionally(cause);
+        } else {
+            future.complete(result);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.bai.registry;
 import com.bai.remoting.dto.RpcRequest;
 
 import java.net.InetSocketAddress;
+import java.util.Set;
 
 public interface ServiceDiscovery {
     /**
@@ -13,4 +14,15 @@ public interface ServiceDiscovery {
      */
     //TODO
     InetSocketAddress lookupService(RpcRequest rpcRequest);
+
+    /**
+     * 选择一个不在 excluded 中的服务地址，用于对冲等需要换一个服务端的场景
+     *
+     * @param excluded 不希望选中的地址
+     * @return service address，没有其他地址可选时返回 null
+     */
+    default InetSocketAddress lookupService(RpcRequest rpcRequest, Set<InetSocketAddress> excluded) {
+        InetSocketAddress address = lookupService(rpcRequest);
+        return excluded.contains(address) ? null : address;
+    }
 }
@@ -0,0 +1,19 @@
+package com.bai.registry.health;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.utils.RpcConfigUtil;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 摘除服务地址的条件，从 rpc.properties 读取
+ */
+@Getter
+class HealthPolicy {
+    private final int consecutiveFailures = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_OUTLIER_CONSECUTIVE_FAILURES, 5);
+    private final double errorRate = Double.parseDouble(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_OUTLIER_ERROR_RATE, "0.5"));
+    private final double latencyFactor = Double.parseDouble(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_OUTLIER_LATENCY_FACTOR, "3"));
+    private final long baseEjectionNanos = TimeUnit.MILLISECONDS.toNanos(RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_OUTLIER_BASE_EJECTION_MS, 10000));
+    private final int maxEjectionPercent = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_OUTLIER_MAX_EJECTION_PERCENT, 50);
+}
@@ -0,0 +1,134 @@
+package com.bai.registry.health;
+
+/**
+ * 一个服务地址的健康状态。
+ * 连续失败、错误率过高或者耗时明显高于其他服务端时被摘除一段时间，摘除时间随摘除次数增加；
+ * 到期后进入半开状态，只放一个探测请求过去，成功才恢复，失败则再次摘除。
+ * 进入半开状态之前发出的请求晚到的结果不影响状态
+ */
+class ProviderHealth {
+    // 错误率统计窗口
+    private static final long WINDOW_NANOS = 10_000_000_000L;
+    // 窗口内请求数太少时不按错误率摘除
+    private static final int MIN_WINDOW_REQUESTS = 20;
+    // 半开状态下探测请求的最长等待时间，超过以后允许再发一个探测请求
+    private static final long PROBE_TIMEOUT_NANOS = 5_000_000_000L;
+    private static final int MAX_EJECTION_MULTIPLIER = 10;
+    private int consecutiveFailures;
+    private long windowStart = System.nanoTime();
+    private int windowRequests;
+    private int windowFailures;
+    // 耗时的滑动平均，0 表示还没有样本
+    private volatile long averageRttNanos;
+    private int ejections;
+    // 摘除到这个时间为止，0 表示没有被摘除
+    private long ejectedUntil;
+    private long probeUntil;
+
+    synchronized void onSuccess(long rttNanos) {
+        long sentAt = System.nanoTime() - rttNanos;
+        if (ejectedUntil != 0 && sentAt - ejectedUntil < 0) {
+            // 摘除期间结束的旧请求
+            return;
+        }
+        consecutiveFailures = 0;
+        rollWindow();
+        windowRequests++;
+        averageRttNanos = averageRttNanos == 0 ? rttNanos : averageRttNanos + (rttNanos - averageRttNanos) / 8;
+        if (ejectedUntil != 0) {
+            // 半开状态之后发出的请求成功，恢复
+            ejectedUntil = 0;
+            probeUntil = 0;
+            ejections = 0;
+        }
+    }
+
+    /**
+     * @param sentAt 失败的请求发出时的 System.nanoTime()
+     * @return 这次失败是否导致被摘除
+     */
+    synchronized boolean onFailure(HealthPolicy policy, long sentAt) {
+        if (ejectedUntil != 0) {
+            if (sentAt - ejectedUntil < 0) {
+                // 进入半开状态之前发出的请求晚到的失败，不能让地址再次被摘除
+                return false;
+            }
+            // 探测请求失败，重新摘除
+            eject(policy);
+            return true;
+        }
+        consecutiveFailures++;
+        rollWindow();
+        windowRequests++;
+        windowFailures++;
+        if (consecutiveFailures >= policy.getConsecutiveFailures()
+                || windowRequests >= MIN_WINDOW_REQUESTS && (double) windowFailures / windowRequests >= policy.getErrorRate()) {
+            eject(policy);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 耗时明显高于其他服务端时摘除
+     */
+    synchronized void ejectAsOutlier(HealthPolicy policy) {
+        if (ejectedUntil == 0) {
+            eject(policy);
+        }
+    }
+
+    /**
+     * @return 是否可以被负载均衡选中：没有被摘除，或者处于半开状态且探测机会还没有被占用。不改变状态
+     */
+    synchronized boolean available(long now) {
+        if (ejectedUntil == 0) {
+            return true;
+        }
+        return now - ejectedUntil >= 0 && (probeUntil == 0 || now - probeUntil >= 0);
+    }
+
+    /**
+     * 负载均衡选中这个地址以后调用，处于半开状态时占用探测机会，同一时间只有一个调用方能拿到
+     *
+     * @return false 表示地址不能使用，探测机会已经被别的调用方占用或者仍在摘除期内
+     */
+    synchronized boolean claimProbe(long now) {
+        if (ejectedUntil == 0) {
+            return true;
+        }
+        if (!available(now)) {
+            return false;
+        }
+        probeUntil = now + PROBE_TIMEOUT_NANOS;
+        return true;
+    }
+
+    synchronized boolean ejected() {
+        return ejectedUntil != 0;
+    }
+
+    long averageRttNanos() {
+        return averageRttNanos;
+    }
+
+    private void eject(HealthPolicy policy) {
+        ejections = Math.min(ejections + 1, MAX_EJECTION_MULTIPLIER);
+        ejectedUntil = System.nanoTime() + policy.getBaseEjectionNanos() * ejections;
+        probeUntil = 0;
+        consecutiveFailures = 0;
+        averageRttNanos = 0;
+        windowStart = System.nanoTime();
+        windowRequests = 0;
+        windowFailures = 0;
+    }
+
+    private void rollWindow() {
+        long now = System.nanoTime();
+        if (now - windowStart > WINDOW_NANOS) {
+            windowStart = now;
+            windowRequests = 0;
+            windowFailures = 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.bai.registry.health;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.enums.RpcErrorMessageEnum;
+import com.bai.exception.RpcException;
+import com.bai.utils.RpcConfigUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 根据调用结果跟踪每个服务地址的健康状态，服务发现时从候选列表中去掉被摘除的地址。
+ * 被摘除的地址超过 maxEjectionPercent 时认为是整体故障(例如客户端自己的网络问题)，不再过滤，避免把流量集中到剩下的少数节点上。
+ * 通过 SingletonFactory 获取
+ */
+@Slf4j
+public class ProviderHealthTracker {
+    // 服务端数量少于这个值时不按耗时摘除
+    private static final int MIN_PROVIDERS_FOR_LATENCY_OUTLIER = 3;
+    private final HealthPolicy policy = new HealthPolicy();
+    // host:port - 健康状态，和注册中心中的服务地址格式相同
+    private final Map<String, ProviderHealth> providers = new ConcurrentHashMap<>();
+
+    /**
+     * 是否开启摘除，由 rpc.client.outlier-ejection 控制
+     */
+    public static boolean enabled() {
+        return RpcConfigUtil.getBoolean(RpcConfigEnum.CLIENT_OUTLIER_EJECTION, false);
+    }
+
+    public void onSuccess(InetSocketAddress address, long rttNanos) {
+        health(key(address)).onSuccess(rttNanos);
+    }
+
+    /**
+     * @param sentAt 失败的请求发出时的 System.nanoTime()
+     */
+    public void onFailure(InetSocketAddress address, long sentAt) {
+        if (health(key(address)).onFailure(policy, sentAt)) {
+            log.warn("服务地址 [{}] 调用失败过多，暂时摘除", address);
+        }
+    }
+
+    /**
+     * 从可用的地址中选择一个。选中的地址处于半开状态时才占用它的探测机会，探测机会刚被别的调用方占用时换一个地址；
+     * 整体故障时不过滤，也不改变探测状态
+     *
+     * @param serviceUrlList 注册中心中的服务地址
+     * @param loadBalance    从候选地址中选择一个
+     * @throws RpcException 可用的地址都处于半开状态，探测机会都已经被别的调用方占用
+     */
+    public String select(List<String> serviceUrlList, Function<List<String>, String> loadBalance) {
+        ejectLatencyOutliers(serviceUrlList);
+        List<String> available = available(serviceUrlList);
+        if (panic(available, serviceUrlList)) {
+            log.warn("被摘除的服务地址过多 [{}/{}]，忽略摘除", serviceUrlList.size() - available.size(), serviceUrlList.size());
+            return loadBalance.apply(serviceUrlList);
+        }
+        while (!available.isEmpty()) {
+            String target = loadBalance.apply(available);
+            ProviderHealth health = providers.get(target);
+            if (health == null || health.claimProbe(System.nanoTime())) {
+                return target;
+            }
+            available = new ArrayList<>(available);
+            available.remove(target);
+        }
+        // 和熔断器的半开状态一样，探测请求有结果之前其他请求直接失败
+        throw new RpcException(RpcErrorMessageEnum.PROVIDER_PROBING, serviceUrlList.toString());
+    }
+
+    private List<String> available(List<String> serviceUrlList) {
+        long now = System.nanoTime();
+        List<String> available = new ArrayList<>(serviceUrlList.size());
+        for (String serviceUrl : serviceUrlList) {
+            ProviderHealth health = providers.get(serviceUrl);
+            if (health == null || health.available(now)) {
+                available.add(serviceUrl);
+            }
+        }
+        return available;
+    }
+
+    private boolean panic(List<String> available, List<String> serviceUrlList) {
+        return available.size() * 100 < serviceUrlList.size() * (100 - policy.getMaxEjectionPercent());
+    }
+
+    /**
+     * 平均耗时超过所有服务端中位数 latencyFactor 倍的地址被摘除
+     */
+    private void ejectLatencyOutliers(List<String> serviceUrlList) {
+        if (serviceUrlList.size() < MIN_PROVIDERS_FOR_LATENCY_OUTLIER) {
+            return;
+        }
+        long[] rtts = new long[serviceUrlList.size()];
+        int count = 0;
+        for (String serviceUrl : serviceUrlList) {
+            ProviderHealth health = providers.get(serviceUrl);
+            if (health != null && !health.ejected() && health.averageRttNanos() > 0) {
+                rtts[count++] = health.averageRttNanos();
+            }
+        }
+        if (count < MIN_PROVIDERS_FOR_LATENCY_OUTLIER) {
+            return;
+        }
+        Arrays.sort(rtts, 0, count);
+        long threshold = (long) (rtts[count / 2] * policy.getLatencyFactor());
+        for (String serviceUrl : serviceUrlList) {
+            ProviderHealth health = providers.get(serviceUrl);
+            if (health != null && !health.ejected() && health.averageRttNanos() > threshold) {
+                log.warn("服务地址 [{}] 耗时明显高于其他服务端，暂时摘除", serviceUrl);
+                health.ejectAsOutlier(policy);
+            }
+        }
+    }
+
+    private ProviderHealth health(String serviceUrl) {
+        return providers.computeIfAbsent(serviceUrl, key -> new ProviderHealth());
+    }
+
+    private static String key(InetSocketAddress address) {
+        return address.getHostString() + ":" + address.getPort();
+    }
+}
@@ -1,26 +1,36 @@
 package com.bai.registry.zk;
 
+import com.bai.enums.RpcConfigEnum;
 import com.bai.enums.RpcErrorMessageEnum;
 import com.bai.exception.RpcException;
+import com.bai.factory.SingletonFactory;
+import com.bai.loadbalance.loadbalancer.LeastLoadLoadBalance;
 import com.bai.loadbalance.loadbalancer.RandomLoadBalance;
 import com.bai.registry.ServiceDiscovery;
+import com.bai.registry.health.ProviderHealthTracker;
 import com.bai.registry.zk.util.CuratorUtils;
 import com.bai.remoting.dto.RpcRequest;
 import com.bai.loadbalance.LoadBalance;
 import com.bai.utils.CollectionUtil;
+import com.bai.utils.RpcConfigUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.curator.framework.CuratorFramework;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 @Slf4j
 public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
+    private static final boolean OUTLIER_EJECTION = ProviderHealthTracker.enabled();
     private final LoadBalance loadBalance;
+    private final ProviderHealthTracker healthTracker = SingletonFactory.getInstance(ProviderHealthTracker.class);
 
     public ZkServiceDiscoveryImpl() {
-
-        this.loadBalance = new RandomLoadBalance();
+        // least-load 使用并发限制器的状态，没有开启 rpc.client.concurrency-limit 时和随机选择差不多
+        this.loadBalance = "least-load".equals(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_LOAD_BALANCE, "random"))
+                ? new LeastLoadLoadBalance() : new RandomLoadBalance();
     }
 
     public ZkServiceDiscoveryImpl(LoadBalance loadBalance) {
@@ -38,13 +48,38 @@ public class ZkServiceDiscoveryImpl implements ServiceDiscovery {
         if (CollectionUtil.isEmpty(serviceUrlList)) {
             throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND, rpcServiceName);
         }
+        return select(serviceUrlList, rpcRequest);
+    }
+
+    @Override
+    public InetSocketAddress lookupService(RpcRequest rpcRequest, Set<InetSocketAddress> excluded) {
+        List<String> serviceUrlList = CuratorUtils.getChildrenNodes(CuratorUtils.getZkClient(), rpcRequest.getRpcServiceName());
+        if (CollectionUtil.isEmpty(serviceUrlList)) {
+            throw new RpcException(RpcErrorMessageEnum.SERVICE_CAN_NOT_BE_FOUND, rpcRequest.getRpcServiceName());
+        }
+        List<String> candidates = new ArrayList<>(serviceUrlList.size());
+        for (String serviceUrl : serviceUrlList) {
+            if (!excluded.contains(toAddress(serviceUrl))) {
+                candidates.add(serviceUrl);
+            }
+        }
+        return candidates.isEmpty() ? null : select(candidates, rpcRequest);
+    }
+
+    private InetSocketAddress select(List<String> serviceUrlList, RpcRequest rpcRequest) {
         //load balance
-        String targetServiceUrl = loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
+        String targetServiceUrl = OUTLIER_EJECTION
+                // 去掉暂时被摘除的服务地址，选中半开状态的地址时占用它的探测机会
+                ? healthTracker.select(serviceUrlList, candidates -> loadBalance.selectServiceAddress(candidates, rpcRequest))
+                : loadBalance.selectServiceAddress(serviceUrlList, rpcRequest);
         log.info("通过负载均衡后，成功发现服务地址[{}]", targetServiceUrl);
-        String[] socketAddressArray = targetServiceUrl.split(":");
+        return toAddress(targetServiceUrl);
+    }
+
+    private static InetSocketAddress toAddress(String serviceUrl) {
+        String[] socketAddressArray = serviceUrl.split(":");
         String host = socketAddressArray[0];
         int port = Integer.parseInt(socketAddressArray[1]);
-        log.info("这个服务的IP和port为[{}]:[{}]", host, port);
         return new InetSocketAddress(host, port);
     }
 }
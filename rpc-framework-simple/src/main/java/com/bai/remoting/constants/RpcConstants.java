@@ -9,9 +9,14 @@ public class RpcConstants {
      * Magic number. Verify RpcMessage
      */
     public static final byte[] MAGIC_NUMBER = {(byte) 'g', (byte) 'r', (byte) 'p', (byte) 'c'};
+    /**
+     * v2 帧只用一个字节的魔数，和 v1 魔数的第一个字节不同，解码器据此区分两种格式
+     */
+    public static final byte MAGIC_NUMBER_V2 = (byte) 0xB2;
     public static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
     //version information
     public static final byte VERSION = 1;
+    public static final byte VERSION_2 = 2;
     public static final byte TOTAL_LENGTH = 16;
     public static final byte REQUEST_TYPE = 1;
     public static final byte RESPONSE_TYPE = 2;
@@ -19,8 +24,33 @@ public class RpcConstants {
     public static final byte HEARTBEAT_REQUEST_TYPE = 3;
     //pong
     public static final byte HEARTBEAT_RESPONSE_TYPE = 4;
+    // 流式调用：客户端追加需求，消息体是 varint64 的数量
+    public static final byte STREAM_REQUEST_N_TYPE = 5;
+    // 流式调用：客户端取消，没有消息体
+    public static final byte STREAM_CANCEL_TYPE = 6;
+    // 批量请求/响应，消息体是 RpcBatch，只使用 v2 帧
+    public static final byte BATCH_REQUEST_TYPE = 7;
+    public static final byte BATCH_RESPONSE_TYPE = 8;
     public static final int HEAD_LENGTH = 16;
+    /**
+     * v2 帧头的定长部分：magic, version, messageType, codec|compress, flags
+     */
+    public static final int HEAD_FIXED_LENGTH_V2 = 5;
+    /**
+     * v1 帧头只有 4 字节的 requestId，只能携带连接内请求 id 的低 32 位
+     */
+    public static final long MAX_REQUEST_ID_V1 = 0xFFFFFFFFL;
+    //flags, only v2
+    public static final byte FLAG_ONEWAY = 0x01;
+    public static final byte FLAG_COMPRESSED = 0x02;
+    public static final byte FLAG_STREAMING = 0x04;
+    // 消息体还没有结束，后面还有同一请求 id 的续帧
+    public static final byte FLAG_CONTINUATION = 0x08;
+    // 流式响应的最后一帧
+    public static final byte FLAG_END_STREAM = 0x10;
     public static final String PING = "ping";
     public static final String PONG = "pong";
     public static final int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_MESSAGE_SIZE = 256 * 1024 * 1024;
 }
@@ -0,0 +1,24 @@
+package com.bai.remoting.dto;
+
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * 一个批量帧携带的多条请求或响应，requestIds[i] 是 items[i] 在连接内的请求 id。
+ * 批量请求中是 RpcRequest，批量响应中是 RpcResponse
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Getter
+@Setter
+@ToString
+public class RpcBatch implements Serializable {
+    private static final long serialVersionUID = -3158442095207721648L;
+    private long[] requestIds;
+    private Object[] items;
+
+    public int size() {
+        return requestIds.length;
+    }
+}
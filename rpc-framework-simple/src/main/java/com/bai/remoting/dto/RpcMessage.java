@@ -9,9 +9,11 @@ import lombok.*;
 @Builder
 @ToString
 public class RpcMessage {
+    private byte version; // 帧格式版本，RpcConstants.VERSION 或 VERSION_2
     private byte messageType; //rpc的信息类型，请求还是响应
     private byte codec; // 序列化类似
     private byte compress; // 压缩类型
-    private int requestId; // 请求ID
+    private byte flags; // RpcConstants.FLAG_*，只有 v2 帧会携带
+    private long requestId; // 连接内的请求ID，响应会带回对应请求的ID
     private Object data; // 携带的数据 请求还是响应
 }
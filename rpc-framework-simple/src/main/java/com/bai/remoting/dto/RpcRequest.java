@@ -12,6 +12,9 @@ import java.io.Serializable;
 @Builder
 public class RpcRequest implements Serializable {
     private static final long serialVersionUID = 1905122041950251207L;
+    /**
+     * 只在 v1 帧中使用，和旧版本的消息体保持一致：旧版本的服务端原样带回，客户端按它匹配响应
+     */
     private String requestId;
     private String interfaceName;
     private String methodName;
@@ -19,6 +22,28 @@ public class RpcRequest implements Serializable {
     private Class<?>[] paramTypes;
     private String version;
     private String group;
+    /**
+     * 连接内为 (服务, 方法签名) 分配的编号，0 表示没有编号。
+     * 同一连接上第一次调用时和完整的方法描述一起发送，之后的请求只带编号和参数。
+     * 不参与序列化，只有 v2 帧在消息体前面携带，见 RpcMessageEncoder
+     */
+    private transient int methodId;
+    /**
+     * 客户端本地使用的方法签名，用于查找连接内的方法编号，不参与序列化
+     */
+    private transient String methodKey;
+    /**
+     * 本次调用的超时毫秒数，0 表示使用 rpc.client.timeout-ms，不参与序列化
+     */
+    private transient long timeout;
+    /**
+     * 方法是否标记了 @Idempotent，幂等的方法才会发送对冲请求和重试，不参与序列化
+     */
+    private transient boolean idempotent;
+    /**
+     * 幂等方法的重试次数，0 表示使用 rpc.client.retry.max-retries，不参与序列化
+     */
+    private transient int retries;
 
     public String getRpcServiceName() {
         return this.getInterfaceName() + this.getGroup() + this.getVersion();
@@ -13,17 +13,17 @@ import java.io.Serializable;
 @Builder
 public class RpcResponse<T> implements Serializable {
     private static final long serialVersionUID = 715745410605631233L;
+    // 只在 v1 帧中使用，带回请求体中的 requestId
     private String requestId;
 
     private Integer code; //response code
     private String message;//response message
     private T data; //response body
 
-    public static <T> RpcResponse<T> success(T data, String requestId) {
+    public static <T> RpcResponse<T> success(T data) {
         RpcResponse<T> response = new RpcResponse<>();
         response.setCode(RpcResponseCodeEnum.SUCCESS.getCode());
         response.setMessage(RpcResponseCodeEnum.SUCCESS.getMessage());
-        response.setRequestId(requestId);
         if (data != null) {
             response.setData(data);
         }
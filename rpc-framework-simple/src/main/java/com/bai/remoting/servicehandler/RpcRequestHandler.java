@@ -2,14 +2,12 @@ package com.bai.remoting.servicehandler;
 
 import com.bai.exception.RpcException;
 import com.bai.factory.SingletonFactory;
+import com.bai.provider.MethodInvoker;
 import com.bai.provider.ServiceProvider;
 import com.bai.provider.impl.ZkServiceProviderImpl;
 import com.bai.remoting.dto.RpcRequest;
 import lombok.extern.slf4j.Slf4j;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-
 @Slf4j
 public class RpcRequestHandler {
     private final ServiceProvider serviceProvider;
@@ -18,25 +16,29 @@ public class RpcRequestHandler {
         serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
     }
 
+    /**
+     * 按服务和方法签名查找发布服务时创建好的调用器，一次哈希查找，不再反射查找方法
+     */
     public Object handle(RpcRequest rpcRequest) {
-        Object service = serviceProvider.getService(rpcRequest.getRpcServiceName());
-        log.info("service是什么啊...[{}] [{}]", service, service.getClass().getName());
-        //service是什么啊...[com.bai.serviceimpl.HelloServiceImpl@35306e66] [com.bai.serviceimpl.HelloServiceImpl]
-        return invokeTargetMethod(rpcRequest, service);
+        MethodInvoker invoker = serviceProvider.getMethodInvoker(rpcRequest);
+        if (log.isDebugEnabled()) {
+            log.debug("请求[{}]使用的方法是[{}]", rpcRequest.getInterfaceName(), invoker.getMethod());
+        }
+        return handle(invoker, rpcRequest.getParameters());
     }
 
-    private Object invokeTargetMethod(RpcRequest rpcRequest, Object service) {
-        Object result;
+    /**
+     * 调用连接内方法字典中已经解析好的方法，不需要再按名字查找
+     */
+    public Object handle(MethodInvoker invoker, Object[] parameters) {
         try {
-            Method method = service.getClass().getMethod(rpcRequest.getMethodName(), rpcRequest.getParamTypes());
-            log.info("使用反射条件[{}],[{}]获得了方法[{}]", rpcRequest.getMethodName(), rpcRequest.getParamTypes(), method);
-            //使用反射条件[hello],[[class com.bai.HelloEntity]]获得了方法[public java.lang.String com.bai.serviceimpl.HelloServiceImpl.hello(com.bai.HelloEntity)]
-            result = method.invoke(service, rpcRequest.getParameters());
-            log.info("服务[{}]成功通过反射调用了方法[{}]", rpcRequest.getInterfaceName(), rpcRequest.getMethodName());
-            log.info("获得的结果是[{}]", result);
-        } catch (InvocationTargetException | NoSuchMethodException | IllegalAccessException e) {
+            Object result = invoker.invoke(parameters);
+            if (log.isDebugEnabled()) {
+                log.debug("获得的结果是[{}]", result);
+            }
+            return result;
+        } catch (Throwable e) {
             throw new RpcException(e.getMessage(), e);
         }
-        return result;
     }
 }
@@ -1,6 +1,8 @@
 package com.bai.remoting.transport;
 
+import com.bai.config.RpcServiceConfig;
 import com.bai.remoting.dto.RpcRequest;
+import org.reactivestreams.Publisher;
 
 public interface RpcRequestTransport {
     /**
@@ -9,4 +11,25 @@ public interface RpcRequestTransport {
      * @return 得到的结果
      */
     Object sendRpcRequest(RpcRequest rpcRequest);
+
+    /**
+     * 按服务的配置发送rpc请求，默认忽略配置
+     * @param rpcRequest 发送的RpcRequest请求
+     * @param rpcServiceConfig 被调用服务的配置，例如序列化方式
+     * @return 得到的结果
+     */
+    default Object sendRpcRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
+        return sendRpcRequest(rpcRequest);
+    }
+
+    /**
+     * 发送流式rpc请求，服务端对同一个请求返回多条响应。
+     * 每次 subscribe 都会发起一次新的调用，订阅者通过 request(n) 控制服务端的发送速度
+     * @param rpcRequest 发送的RpcRequest请求
+     * @param rpcServiceConfig 被调用服务的配置
+     * @return 响应数据的 Publisher
+     */
+    default Publisher<Object> sendStreamRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
+        throw new UnsupportedOperationException("stream request is not supported by " + getClass().getName());
+    }
 }
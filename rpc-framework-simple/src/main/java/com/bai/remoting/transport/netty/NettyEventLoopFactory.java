@@ -0,0 +1,117 @@
+package com.bai.remoting.transport.netty;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.utils.RpcConfigUtil;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 选择 Netty 传输层实现：Linux 上 epoll 可用时使用 epoll(边缘触发)，否则使用 NIO。
+ * 线程数、ByteBuf 分配器、socket 参数和合并写都从 rpc.properties 读取
+ */
+@Slf4j
+public final class NettyEventLoopFactory {
+    private static final int DEFAULT_FLUSH_CONSOLIDATION = 64;
+    private static final boolean USE_EPOLL = RpcConfigUtil.getBoolean(RpcConfigEnum.TRANSPORT_NATIVE, true) && Epoll.isAvailable();
+
+    static {
+        log.info("Netty transport: [{}]", USE_EPOLL ? "epoll" : "nio");
+    }
+
+    private NettyEventLoopFactory() {
+    }
+
+    /**
+     * @param threads 线程数，0 表示使用 Netty 默认值
+     */
+    public static EventLoopGroup eventLoopGroup(int threads, String threadName) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(threadName);
+        return USE_EPOLL ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    public static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        return USE_EPOLL ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public static Class<? extends SocketChannel> socketChannelClass() {
+        return USE_EPOLL ? EpollSocketChannel.class : NioSocketChannel.class;
+    }
+
+    /**
+     * 服务端监听 socket 和已接受连接的公共参数
+     */
+    public static void configure(ServerBootstrap bootstrap) {
+        bootstrap.option(ChannelOption.ALLOCATOR, allocator())
+                .childOption(ChannelOption.ALLOCATOR, allocator());
+        int rcvBuf = RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_SO_RCVBUF, 0);
+        if (rcvBuf > 0) {
+            // 接受的连接继承监听 socket 的接收缓冲区，要在 listen 之前设置才能影响 TCP 窗口协商
+            bootstrap.option(ChannelOption.SO_RCVBUF, rcvBuf);
+        }
+        int sndBuf = RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_SO_SNDBUF, 0);
+        if (sndBuf > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, sndBuf);
+        }
+        if (USE_EPOLL) {
+            bootstrap.childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+            if (RpcConfigUtil.getBoolean(RpcConfigEnum.TRANSPORT_SO_REUSEPORT, false)) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+        }
+    }
+
+    /**
+     * 客户端连接的公共参数
+     */
+    public static void configure(Bootstrap bootstrap) {
+        bootstrap.option(ChannelOption.ALLOCATOR, allocator());
+        int rcvBuf = RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_SO_RCVBUF, 0);
+        if (rcvBuf > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, rcvBuf);
+        }
+        int sndBuf = RpcConfigUtil.getInt(RpcConfigEnum.TRANSPORT_SO_SNDBUF, 0);
+        if (sndBuf > 0) {
+            bootstrap.option(ChannelOption.SO_SNDBUF, sndBuf);
+        }
+        if (USE_EPOLL) {
+            bootstrap.option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+        }
+    }
+
+    /**
+     * rpc.transport.write-coalescing 开启时在 pipeline 最前面(最靠近 socket)加入 {@link FlushConsolidationHandler}：
+     * 每次 writeAndFlush 不再各自触发一次系统调用，而是在本轮读或 EventLoop 任务结束时统一 flush，
+     * 攒够 max-messages 次 flush 时立即 flush
+     */
+    public static void addFlushConsolidation(ChannelPipeline pipeline) {
+        if (RpcConfigUtil.getBoolean(RpcConfigEnum.WRITE_COALESCING, false)) {
+            int maxMessages = RpcConfigUtil.getInt(RpcConfigEnum.WRITE_COALESCING_MAX_MESSAGES, DEFAULT_FLUSH_CONSOLIDATION);
+            pipeline.addLast(new FlushConsolidationHandler(maxMessages, true));
+        }
+    }
+
+    private static ByteBufAllocator allocator() {
+        return "unpooled".equalsIgnoreCase(RpcConfigUtil.getString(RpcConfigEnum.TRANSPORT_ALLOCATOR, "pooled"))
+                ? UnpooledByteBufAllocator.DEFAULT : PooledByteBufAllocator.DEFAULT;
+    }
+}
@@ -1,45 +1,181 @@
 package com.bai.remoting.transport.netty.client;
 
+import com.bai.enums.RpcConfigEnum;
+import com.bai.factory.SingletonFactory;
+import com.bai.utils.RpcConfigUtil;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
 import lombok.extern.slf4j.Slf4j;
 
 import java.net.InetSocketAddress;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 /**
- * 存储并获取通道对象
+ * 存储并获取通道对象。每个服务地址一个连接池，池中最多 rpc.client.connections-per-address 个连接，
+ * 按未完成请求最少(least-pending)或者轮询(round-robin)选择连接。
+ * 连接断开后在后台按指数退避重连，退避期间的调用方会直接发起新的连接，不需要等待
  */
 @Slf4j
 public class ChannelProvider {
-    private final Map<String, Channel> channelMap;
+    private final Map<InetSocketAddress, ChannelPool> channelPools;
+    private final int connectionsPerAddress;
+    private final boolean leastPending;
+    private final long reconnectInitialDelay;
+    private final long reconnectMaxDelay;
+    private final int reconnectMaxAttempts;
+    private final UnprocessedRequests unprocessedRequests;
 
     public ChannelProvider() {
-        channelMap = new ConcurrentHashMap<>();
+        channelPools = new ConcurrentHashMap<>();
+        connectionsPerAddress = Math.max(1, RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_CONNECTIONS_PER_ADDRESS, 1));
+        leastPending = !"round-robin".equalsIgnoreCase(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_CHANNEL_SELECT, "least-pending"));
+        unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        reconnectInitialDelay = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_RECONNECT_INITIAL_DELAY_MS, 100);
+        reconnectMaxDelay = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_RECONNECT_MAX_DELAY_MS, 30_000);
+        reconnectMaxAttempts = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_RECONNECT_MAX_ATTEMPTS, 10);
     }
 
-    public Channel get(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.toString();
-        if (channelMap.containsKey(key)) {
-            Channel channel = channelMap.get(key);
-            if (channel != null && channel.isActive()) {
-                return channel;
-            } else {
-                channelMap.remove(key);
-            }
-        }
-        return null;
+    /**
+     * 从地址对应的连接池中选一个连接。选中的位置还没有连接或者连接已经断开时用 connector 建立新连接，
+     * 并发的调用方共享同一次正在进行的连接
+     */
+    public CompletableFuture<Channel> get(InetSocketAddress inetSocketAddress, Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+        return channelPools.computeIfAbsent(inetSocketAddress, k -> new ChannelPool(k, connector))
+                .acquire();
     }
 
-    public void set(InetSocketAddress inetSocketAddress, Channel channel) {
-        String key = inetSocketAddress.toString();
-        channelMap.put(key, channel);
+    public void remove(InetSocketAddress inetSocketAddress) {
+        channelPools.remove(inetSocketAddress);
+        log.info("Channel pool size :[{}]", channelPools.size());
     }
 
-    public void remove(InetSocketAddress inetSocketAddress) {
-        String key = inetSocketAddress.toString();
-        channelMap.remove(key);
-        log.info("Channel map size :[{}]", channelMap.size());
+    private class ChannelPool {
+        private final InetSocketAddress inetSocketAddress;
+        private final Function<InetSocketAddress, CompletableFuture<Channel>> connector;
+        private final AtomicReferenceArray<CompletableFuture<Channel>> slots;
+        private final AtomicInteger next = new AtomicInteger();
+
+        ChannelPool(InetSocketAddress inetSocketAddress, Function<InetSocketAddress, CompletableFuture<Channel>> connector) {
+            this.inetSocketAddress = inetSocketAddress;
+            this.connector = connector;
+            this.slots = new AtomicReferenceArray<>(connectionsPerAddress);
+        }
+
+        CompletableFuture<Channel> acquire() {
+            while (true) {
+                int index = select();
+                CompletableFuture<Channel> current = slots.get(index);
+                if (usable(current)) {
+                    return current;
+                }
+                CompletableFuture<Channel> created = connect(index, current);
+                if (created != null) {
+                    return created;
+                }
+                // 其他线程已经替换了这个位置，重新选择
+            }
+        }
+
+        /**
+         * @return 新连接的 future；位置已经被其他线程替换时返回 null
+         */
+        private CompletableFuture<Channel> connect(int index, CompletableFuture<Channel> expected) {
+            CompletableFuture<Channel> created = new CompletableFuture<>();
+            if (!slots.compareAndSet(index, expected, created)) {
+                return null;
+            }
+            connector.apply(inetSocketAddress).whenComplete((channel, cause) -> {
+                if (cause != null) {
+                    slots.compareAndSet(index, created, null);
+                    created.completeExceptionally(cause);
+                } else {
+                    channel.closeFuture().addListener(future -> {
+                        if (slots.compareAndSet(index, created, null)) {
+                            scheduleReconnect(index, channel.eventLoop(), reconnectInitialDelay, 1);
+                        }
+                    });
+                    created.complete(channel);
+                }
+            });
+            return created;
+        }
+
+        private void scheduleReconnect(int index, EventLoop eventLoop, long delay, int attempt) {
+            if (attempt > reconnectMaxAttempts || channelPools.get(inetSocketAddress) != this) {
+                return;
+            }
+            try {
+                eventLoop.schedule(() -> reconnect(index, eventLoop, delay, attempt), delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // EventLoopGroup 已经关闭
+                log.info("客户端已关闭，不再重连 [{}]", inetSocketAddress);
+            }
+        }
+
+        private void reconnect(int index, EventLoop eventLoop, long delay, int attempt) {
+            if (slots.get(index) != null || channelPools.get(inetSocketAddress) != this) {
+                // 已经有调用方按需建立了连接
+                return;
+            }
+            log.info("第[{}]次重连 [{}]", attempt, inetSocketAddress);
+            CompletableFuture<Channel> created = connect(index, null);
+            if (created != null) {
+                created.whenComplete((channel, cause) -> {
+                    if (cause != null) {
+                        scheduleReconnect(index, eventLoop, Math.min(delay * 2, reconnectMaxDelay), attempt + 1);
+                    }
+                });
+            }
+        }
+
+        /**
+         * 优先选择还没有建立连接的位置，让连接池逐步填满；都建立以后选择未完成请求最少的连接
+         */
+        private int select() {
+            int size = slots.length();
+            if (size == 1) {
+                return 0;
+            }
+            int start = Math.floorMod(next.getAndIncrement(), size);
+            if (!leastPending) {
+                return start;
+            }
+            int best = start;
+            int bestPending = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                int index = (start + i) % size;
+                CompletableFuture<Channel> future = slots.get(index);
+                if (!usable(future)) {
+                    return index;
+                }
+                if (!future.isDone()) {
+                    continue;
+                }
+                int pending = unprocessedRequests.pendingCount(future.join());
+                if (pending < bestPending) {
+                    best = index;
+                    bestPending = pending;
+                }
+            }
+            return best;
+        }
+
+        private boolean usable(CompletableFuture<Channel> future) {
+            if (future == null) {
+                return false;
+            }
+            if (!future.isDone()) {
+                return true;
+            }
+            return !future.isCompletedExceptionally() && future.join().isActive();
+        }
     }
 }
 
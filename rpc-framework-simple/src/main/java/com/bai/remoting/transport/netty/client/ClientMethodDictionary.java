@@ -0,0 +1,85 @@
+package com.bai.remoting.transport.netty.client;
+
+import com.bai.remoting.dto.RpcRequest;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端的连接内方法字典：第一次在某个连接上调用一个方法时分配编号，
+ * 这次请求带着完整的方法描述发出去，服务端收到后记下编号；写成功以后同一连接上的请求只发编号和参数
+ */
+public class ClientMethodDictionary {
+    private static final AttributeKey<Dictionary> METHOD_DICTIONARY = AttributeKey.valueOf("clientMethodDictionary");
+
+    /**
+     * @return 要写到连接上的请求。方法已经在这个连接上定义过时返回只包含编号和参数的精简请求
+     */
+    public RpcRequest compact(Channel channel, RpcRequest rpcRequest) {
+        if (rpcRequest.getMethodKey() == null) {
+            return rpcRequest;
+        }
+        Entry entry = dictionary(channel).entry(rpcRequest.getMethodKey());
+        if (entry.isDefined()) {
+            return RpcRequest.builder()
+                    .methodId(entry.getId())
+                    .parameters(rpcRequest.getParameters())
+                    .build();
+        }
+        // 还没确认送达，继续发送完整描述，服务端重复定义同一个编号是幂等的
+        return RpcRequest.builder()
+                .methodId(entry.getId())
+                .interfaceName(rpcRequest.getInterfaceName())
+                .methodName(rpcRequest.getMethodName())
+                .parameters(rpcRequest.getParameters())
+                .paramTypes(rpcRequest.getParamTypes())
+                .group(rpcRequest.getGroup())
+                .version(rpcRequest.getVersion())
+                .build();
+    }
+
+    /**
+     * 带完整描述的请求写成功以后调用，TCP 保证服务端先收到这次定义
+     */
+    public void defined(Channel channel, RpcRequest rpcRequest) {
+        if (rpcRequest.getMethodKey() != null) {
+            dictionary(channel).entry(rpcRequest.getMethodKey()).defined = true;
+        }
+    }
+
+    private static Dictionary dictionary(Channel channel) {
+        Dictionary dictionary = channel.attr(METHOD_DICTIONARY).get();
+        if (dictionary == null) {
+            Dictionary created = new Dictionary();
+            dictionary = channel.attr(METHOD_DICTIONARY).setIfAbsent(created);
+            if (dictionary == null) {
+                dictionary = created;
+            }
+        }
+        return dictionary;
+    }
+
+    private static class Dictionary {
+        private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+
+        Entry entry(String methodKey) {
+            Entry entry = entries.get(methodKey);
+            return entry != null ? entry : entries.computeIfAbsent(methodKey, k -> new Entry(nextId.incrementAndGet()));
+        }
+    }
+
+    @Getter
+    private static class Entry {
+        private final int id;
+        private volatile boolean defined;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.bai.remoting.transport.netty.client;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 一个连接上还没有完成的请求，按 long 类型的请求 id 查找。
+ * 连接内的请求 id 是自增的，所以直接用 id 的低位作为环形数组的下标，正常情况下不需要哈希也不需要装箱；
+ * 槽位被一个很久以前还没完成的请求占着时才放进溢出表
+ */
+final class InFlightTable<V> {
+    // 环形数组的大小，必须是 2 的幂
+    private static final int RING_SIZE = 1024;
+    private static final int MASK = RING_SIZE - 1;
+    private final AtomicReferenceArray<Entry<V>> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private final Map<Long, V> overflow = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    void put(long id, V value) {
+        size.incrementAndGet();
+        if (!ring.compareAndSet(index(id), null, new Entry<>(id, value))) {
+            overflow.put(id, value);
+        }
+    }
+
+    V get(long id) {
+        Entry<V> entry = ring.get(index(id));
+        if (entry != null && entry.id == id) {
+            return entry.value;
+        }
+        return overflow.isEmpty() ? null : overflow.get(id);
+    }
+
+    V remove(long id) {
+        int index = index(id);
+        Entry<V> entry = ring.get(index);
+        if (entry != null && entry.id == id && ring.compareAndSet(index, entry, null)) {
+            size.decrementAndGet();
+            return entry.value;
+        }
+        V value = overflow.isEmpty() ? null : overflow.remove(id);
+        if (value != null) {
+            size.decrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * 只有 id 对应的仍然是 value 时才移除
+     */
+    boolean remove(long id, V value) {
+        int index = index(id);
+        Entry<V> entry = ring.get(index);
+        if (entry != null && entry.id == id && entry.value == value && ring.compareAndSet(index, entry, null)) {
+            size.decrementAndGet();
+            return true;
+        }
+        if (!overflow.isEmpty() && overflow.remove(id, value)) {
+            size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 一次移除全部请求，每个被移除的请求交给 action
+     */
+    void drain(Consumer<V> action) {
+        for (int i = 0; i < RING_SIZE; i++) {
+            Entry<V> entry = ring.get(i);
+            if (entry != null && ring.compareAndSet(i, entry, null)) {
+                size.decrementAndGet();
+                action.accept(entry.value);
+            }
+        }
+        for (Long id : overflow.keySet()) {
+            V value = overflow.remove(id);
+            if (value != null) {
+                size.decrementAndGet();
+                action.accept(value);
+            }
+        }
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private static int index(long id) {
+        return (int) id & MASK;
+    }
+
+    private static final class Entry<V> {
+        private final long id;
+        private final V value;
+
+        private Entry(long id, V value) {
+            this.id = id;
+            this.value = value;
+        }
+    }
+}
@@ -1,46 +1,89 @@
 package com.bai.remoting.transport.netty.client;
 
+import com.bai.compress.CompressRegistry;
+import com.bai.config.RpcServiceConfig;
 import com.bai.enums.CompressTypeEnum;
-import com.bai.enums.SerializationTypeEnum;
+import com.bai.enums.RpcConfigEnum;
+import com.bai.enums.RpcErrorMessageEnum;
+import com.bai.exception.RpcException;
 import com.bai.factory.SingletonFactory;
+import com.bai.limit.ConcurrencyLimiter;
+import com.bai.limit.ProviderLimiters;
+import com.bai.metrics.LatencyWindow;
+import com.bai.metrics.RpcClientMetrics;
 import com.bai.registry.ServiceDiscovery;
+import com.bai.registry.health.ProviderHealthTracker;
 import com.bai.registry.zk.ZkServiceDiscoveryImpl;
 import com.bai.remoting.constants.RpcConstants;
 import com.bai.remoting.dto.RpcMessage;
 import com.bai.remoting.dto.RpcRequest;
 import com.bai.remoting.dto.RpcResponse;
 import com.bai.remoting.transport.RpcRequestTransport;
+import com.bai.remoting.transport.netty.NettyEventLoopFactory;
 import com.bai.remoting.transport.netty.codec.RpcMessageDecoder;
 import com.bai.remoting.transport.netty.codec.RpcMessageEncoder;
+import com.bai.serialize.SerializerRegistry;
+import com.bai.utils.RpcConfigUtil;
+import com.bai.utils.concurrent.TokenBudget;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.logging.LogLevel;
-import io.netty.handler.logging.LoggingHandler;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 @Slf4j
 public final class NettyRpcClient implements RpcRequestTransport {
     private final ServiceDiscovery serviceDiscovery;
     private final UnprocessedRequests unprocessedRequests;
+    private final ClientMethodDictionary methodDictionary;
     private final ChannelProvider channelProvider;
     private final Bootstrap bootstrap;
     private final EventLoopGroup eventLoopGroup;
+    // 发送请求使用的帧格式版本，默认 v1，和旧版本的服务端兼容
+    private static final byte PROTOCOL_VERSION = (byte) RpcConfigUtil.getInt(RpcConfigEnum.PROTOCOL_VERSION, RpcConstants.VERSION);
+    private static final boolean HEDGING = RpcConfigUtil.getBoolean(RpcConfigEnum.CLIENT_HEDGING, false);
+    private static final double HEDGING_PERCENTILE = Double.parseDouble(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_HEDGING_PERCENTILE, "95"));
+    // 对冲请求的全局预算，默认最多增加 10% 的请求
+    private static final TokenBudget HEDGING_BUDGET = new TokenBudget(
+            Double.parseDouble(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_HEDGING_BUDGET_RATIO, "0.1")), 10);
+    private static final boolean CONCURRENCY_LIMIT = ProviderLimiters.enabled();
+    // 幂等方法默认的重试次数，0 表示不重试
+    private static final int MAX_RETRIES = RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_RETRY_MAX_RETRIES, 0);
+    private static final long RETRY_BACKOFF_MS = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_RETRY_BACKOFF_MS, 20);
+    private static final long RETRY_MAX_BACKOFF_MS = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_RETRY_MAX_BACKOFF_MS, 1000);
+    // 重试的全局预算，默认最多增加 10% 的请求
+    private static final TokenBudget RETRY_BUDGET = new TokenBudget(
+            Double.parseDouble(RpcConfigUtil.getString(RpcConfigEnum.CLIENT_RETRY_BUDGET_RATIO, "0.1")), 10);
+    private static final boolean OUTLIER_EJECTION = ProviderHealthTracker.enabled();
+    private final RpcClientMetrics metrics = SingletonFactory.getInstance(RpcClientMetrics.class);
+    private final ProviderLimiters providerLimiters = SingletonFactory.getInstance(ProviderLimiters.class);
+    private final ProviderHealthTracker healthTracker = SingletonFactory.getInstance(ProviderHealthTracker.class);
 
     public NettyRpcClient() {
-        eventLoopGroup = new NioEventLoopGroup();
+        eventLoopGroup = NettyEventLoopFactory.eventLoopGroup(
+                RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_WORKER_THREADS, 0), "rpc-client-worker");
         bootstrap = new Bootstrap();
+        NettyEventLoopFactory.configure(bootstrap);
         bootstrap.group(eventLoopGroup)
-                .channel(NioSocketChannel.class)
-                .handler(new LoggingHandler(LogLevel.INFO))
+                .channel(NettyEventLoopFactory.socketChannelClass())
                 //  连接的超时时间。
                 //  如果超过此时间或无法建立连接，则连接失败。
                 .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
@@ -48,15 +91,23 @@ public final class NettyRpcClient implements RpcRequestTransport {
                     @Override
                     protected void initChannel(SocketChannel ch) {
                         ChannelPipeline p = ch.pipeline();
+                        NettyEventLoopFactory.addFlushConsolidation(p);
                         // 如果15秒内没有数据发送到服务器，则发送心跳请求
                         p.addLast(new IdleStateHandler(0, 5, 0, TimeUnit.SECONDS));
+                        // 大消息拆成的续帧在 channel 可写时才逐帧写出
+                        p.addLast(new ChunkedWriteHandler());
                         p.addLast(new RpcMessageEncoder()); //实现了ChannelHandler接口!上面这个也是
+                        if (RequestBatchingHandler.enabled()) {
+                            // 出站消息先经过这里打包，再交给 encoder
+                            p.addLast(new RequestBatchingHandler());
+                        }
                         p.addLast(new RpcMessageDecoder()); //实现了ChannelHandler接口!
                         p.addLast(new NettyRpcClientHandler()); //实现了ChannelHandler接口!
                     }
                 });
         this.serviceDiscovery = new ZkServiceDiscoveryImpl();
         this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        this.methodDictionary = SingletonFactory.getInstance(ClientMethodDictionary.class);
         this.channelProvider = SingletonFactory.getInstance(ChannelProvider.class);
     }
 
@@ -64,10 +115,9 @@ public final class NettyRpcClient implements RpcRequestTransport {
      * 连接服务器并获取Channel，以便可以向服务器发送rpc消息
      *
      * @param inetSocketAddress server address
-     * @return the channel
+     * @return 连接建立后完成的 future
      */
-    @SneakyThrows
-    public Channel doConnect(InetSocketAddress inetSocketAddress) {
+    public CompletableFuture<Channel> doConnect(InetSocketAddress inetSocketAddress) {
         CompletableFuture<Channel> completableFuture = new CompletableFuture<>();
         bootstrap.connect(inetSocketAddress).addListener((ChannelFutureListener) future -> {
             if (future.isSuccess()) {
@@ -75,51 +125,379 @@ public final class NettyRpcClient implements RpcRequestTransport {
                 completableFuture.complete(future.channel());
             } else {
                 log.info("连接到服务器时发生错误...");
-                throw new IllegalStateException();
+                completableFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CLIENT_CONNECT_SERVER_FAILURE,
+                        inetSocketAddress.toString(), future.cause()));
             }
         });
-        return completableFuture.get(); //会阻塞直到complete方法被调用
+        return completableFuture;
     }
 
     @Override
     public Object sendRpcRequest(RpcRequest rpcRequest) {
-        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        return sendRpcRequest(rpcRequest, SerializerRegistry.getConfiguredCode());
+    }
+
+    @Override
+    public Object sendRpcRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
+        return sendRpcRequest(rpcRequest, SerializerRegistry.getCode(rpcServiceConfig.getSerialization()));
+    }
+
+    /**
+     * 不阻塞调用线程：连接建立(或者复用已有连接)以后在回调中发送，连接失败时返回的 future 以 RpcException 结束
+     */
+    private Object sendRpcRequest(RpcRequest rpcRequest, byte codec) {
         InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(rpcRequest); //获取到要连接的ip+port
-        Channel channel = getChannel(inetSocketAddress);
-        log.info("获取Channel成功[{}][{}]", channel, channel.getClass().getName());
+        int retries = !rpcRequest.isIdempotent() ? 0 : rpcRequest.getRetries() > 0 ? rpcRequest.getRetries() : MAX_RETRIES;
+        if (retries == 0) {
+            return attempt(rpcRequest, codec, inetSocketAddress);
+        }
+        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        RETRY_BUDGET.deposit();
+        sendWithRetry(rpcRequest, codec, inetSocketAddress, ConcurrentHashMap.newKeySet(), retries, 0, resultFuture);
+        return resultFuture;
+    }
+
+    private CompletableFuture<RpcResponse<Object>> attempt(RpcRequest rpcRequest, byte codec, InetSocketAddress inetSocketAddress) {
+        if (HEDGING && rpcRequest.isIdempotent()) {
+            return sendHedged(rpcRequest, codec, inetSocketAddress);
+        }
+        return send(inetSocketAddress, rpcRequest, codec);
+    }
+
+    /**
+     * 幂等方法因为连接失败、超时等原因没有拿到响应时，退避一段随机时间后换一个服务端重试。
+     * 每次重试从全局预算中取一个令牌，服务端大面积故障时重试不会成倍放大请求量
+     *
+     * @param tried 已经尝试过的服务地址
+     */
+    private void sendWithRetry(RpcRequest rpcRequest, byte codec, InetSocketAddress inetSocketAddress, Set<InetSocketAddress> tried,
+                               int retries, int attempt, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        tried.add(inetSocketAddress);
+        attempt(rpcRequest, codec, inetSocketAddress).whenComplete((response, cause) -> {
+            if (cause == null) {
+                resultFuture.complete(response);
+                return;
+            }
+            if (resultFuture.isDone() || cause instanceof CancellationException || attempt >= retries || !RETRY_BUDGET.tryWithdraw()) {
+                resultFuture.completeExceptionally(cause);
+                return;
+            }
+            // 指数退避加完全随机抖动，避免大量客户端同时重试
+            long backoff = ThreadLocalRandom.current().nextLong(Math.min(RETRY_MAX_BACKOFF_MS, RETRY_BACKOFF_MS << Math.min(attempt, 20)) + 1);
+            metrics.recordRetry();
+            log.warn("请求 [{}] 失败，[{}]ms 后第 [{}] 次重试", inetSocketAddress, backoff, attempt + 1, cause);
+            UnprocessedRequests.TIMER.newTimeout(timeout -> {
+                InetSocketAddress next;
+                try {
+                    next = serviceDiscovery.lookupService(rpcRequest, tried);
+                    if (next == null) {
+                        // 没有其他服务端时仍然重试之前的服务端
+                        next = serviceDiscovery.lookupService(rpcRequest);
+                    }
+                } catch (Exception e) {
+                    resultFuture.completeExceptionally(e);
+                    return;
+                }
+                sendWithRetry(rpcRequest, codec, next, tried, retries, attempt + 1, resultFuture);
+            }, backoff, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * 先向 primary 发送；超过这个方法最近耗时的分位数还没有结果时，在预算允许的情况下向另一个服务端再发一次，
+     * 先成功的响应作为结果，另一个请求被取消，之后收到的响应直接丢弃
+     */
+    private CompletableFuture<RpcResponse<Object>> sendHedged(RpcRequest rpcRequest, byte codec, InetSocketAddress primary) {
+        HEDGING_BUDGET.deposit();
+        LatencyWindow latency = metrics.latency(rpcRequest.getMethodKey());
+        long delayNanos = latency.percentile(HEDGING_PERCENTILE);
+        CompletableFuture<RpcResponse<Object>> first = sendTimed(primary, rpcRequest, codec, latency);
+        if (delayNanos <= 0) {
+            // 还没有足够的耗时样本
+            return first;
+        }
+        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        // attempts 同时作为锁：对冲请求的启动、失败计数和结果完成时的取消都在它上面互斥
+        List<CompletableFuture<RpcResponse<Object>>> attempts = new ArrayList<>(2);
+        AtomicInteger outstanding = new AtomicInteger(1);
+        BiConsumer<RpcResponse<Object>, Throwable> onAttempt = (response, cause) -> {
+            if (cause == null) {
+                resultFuture.complete(response);
+                return;
+            }
+            boolean last;
+            synchronized (attempts) {
+                last = outstanding.decrementAndGet() == 0;
+            }
+            if (last) {
+                resultFuture.completeExceptionally(cause);
+            }
+        };
+        attempts.add(first);
+        first.whenComplete(onAttempt);
+        UnprocessedRequests.TIMER.newTimeout(timeout -> {
+            if (resultFuture.isDone()) {
+                return;
+            }
+            InetSocketAddress backup = serviceDiscovery.lookupService(rpcRequest, Collections.singleton(primary));
+            if (backup == null) {
+                return;
+            }
+            synchronized (attempts) {
+                // 主请求可能刚好在这时失败并让结果完成，这种情况不再对冲，也不占用预算
+                if (resultFuture.isDone() || !HEDGING_BUDGET.tryWithdraw()) {
+                    return;
+                }
+                outstanding.incrementAndGet();
+            }
+            metrics.recordHedge();
+            log.info("[{}] 在 [{}]us 内没有响应，向 [{}] 发送对冲请求", primary, delayNanos / 1000, backup);
+            CompletableFuture<RpcResponse<Object>> hedge = sendTimed(backup, rpcRequest, codec, latency);
+            boolean done;
+            synchronized (attempts) {
+                attempts.add(hedge);
+                done = resultFuture.isDone();
+            }
+            if (done) {
+                // 发送期间已经有了结果
+                hedge.cancel(false);
+            }
+            hedge.whenComplete(onAttempt);
+        }, delayNanos, TimeUnit.NANOSECONDS);
+        // 有结果以后取消还在等待的请求
+        resultFuture.whenComplete((response, cause) -> {
+            List<CompletableFuture<RpcResponse<Object>>> pending;
+            synchronized (attempts) {
+                pending = new ArrayList<>(attempts);
+            }
+            pending.forEach(attempt -> attempt.cancel(false));
+        });
+        return resultFuture;
+    }
+
+    /**
+     * 发送并把成功调用的耗时记录到 latency
+     */
+    private CompletableFuture<RpcResponse<Object>> sendTimed(InetSocketAddress address, RpcRequest rpcRequest, byte codec, LatencyWindow latency) {
+        long start = System.nanoTime();
+        CompletableFuture<RpcResponse<Object>> future = send(address, rpcRequest, codec);
+        future.thenRun(() -> latency.record(System.nanoTime() - start));
+        return future;
+    }
+
+    private CompletableFuture<RpcResponse<Object>> send(InetSocketAddress inetSocketAddress, RpcRequest rpcRequest, byte codec) {
+        CompletableFuture<RpcResponse<Object>> resultFuture = new CompletableFuture<>();
+        if (CONCURRENCY_LIMIT && !acquire(inetSocketAddress, resultFuture)) {
+            return resultFuture;
+        }
+        if (OUTLIER_EJECTION) {
+            trackHealth(inetSocketAddress, resultFuture);
+        }
+        channelProvider.get(inetSocketAddress, this::doConnect).whenComplete((channel, cause) -> {
+            if (cause != null) {
+                resultFuture.completeExceptionally(cause);
+            } else {
+                writeRequest(channel, rpcRequest, codec, resultFuture);
+            }
+        });
+        return resultFuture;
+    }
+
+    /**
+     * 占用服务端的一个并发名额，请求结束时把 RTT 或者失败反馈给限制器
+     *
+     * @return 超过上限时让 resultFuture 失败并返回 false
+     */
+    private boolean acquire(InetSocketAddress inetSocketAddress, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        ConcurrencyLimiter limiter = providerLimiters.get(inetSocketAddress);
+        if (!limiter.tryAcquire()) {
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CONCURRENCY_LIMIT_EXCEEDED,
+                    inetSocketAddress + " limit:" + limiter.getLimit()));
+            return false;
+        }
+        long start = System.nanoTime();
+        resultFuture.whenComplete((response, cause) -> {
+            if (cause == null) {
+                limiter.onSuccess(System.nanoTime() - start);
+            } else if (cause instanceof CancellationException) {
+                limiter.onIgnore();
+            } else {
+                limiter.onDropped();
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 把调用结果反馈给服务地址的健康状态；应用层的失败响应说明服务端可达，按成功处理
+     */
+    private void trackHealth(InetSocketAddress inetSocketAddress, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        long start = System.nanoTime();
+        resultFuture.whenComplete((response, cause) -> {
+            if (cause == null) {
+                healthTracker.onSuccess(inetSocketAddress, System.nanoTime() - start);
+            } else if (!(cause instanceof CancellationException)) {
+                healthTracker.onFailure(inetSocketAddress, start);
+            }
+        });
+    }
+
+    private void writeRequest(Channel channel, RpcRequest rpcRequest, byte codec, CompletableFuture<RpcResponse<Object>> resultFuture) {
+        if (log.isDebugEnabled()) {
+            log.debug("获取Channel成功[{}][{}]", channel, channel.getClass().getName());
+        }
+        if (resultFuture.isDone()) {
+            // 连接建立之前请求已经被取消，例如对冲中另一个请求已经成功
+            return;
+        }
         if (channel.isActive()) {
-            unprocessedRequests.put(rpcRequest.getRequestId(), resultFuture); // UUID - future
+            long requestId = unprocessedRequests.put(channel, PROTOCOL_VERSION, resultFuture, rpcRequest.getTimeout()); // 连接内请求 id - future
             RpcMessage rpcMessage = RpcMessage.builder()
-                    .data(rpcRequest)
-                    .codec(SerializationTypeEnum.KYRO.getCode())
-                    .compress(CompressTypeEnum.GZIP.getCode())
+                    .version(PROTOCOL_VERSION)
+                    .requestId(requestId)
+                    .data(PROTOCOL_VERSION == RpcConstants.VERSION_2
+                            ? methodDictionary.compact(channel, rpcRequest) : v1Request(rpcRequest, requestId))
+                    .codec(codec)
+                    .compress(CompressRegistry.getConfiguredCode())
                     .messageType(RpcConstants.REQUEST_TYPE)
                     .build();
             channel.writeAndFlush(rpcMessage).addListener(new ChannelFutureListener() { //操作完成回调函数
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
                     if (future.isSuccess()) {
-                        log.info("客户端发送消息成功[{}]", rpcMessage);
+                        methodDictionary.defined(future.channel(), rpcRequest);
+                        if (log.isDebugEnabled()) {
+                            log.debug("客户端发送消息成功[{}]", rpcMessage);
+                        }
                     } else {
-                        future.channel().close();
-                        resultFuture.completeExceptionally(future.cause());
+                        if (!(future.cause() instanceof EncoderException)) {
+                            // 只是这条消息编码失败时连接仍然可用
+                            future.channel().close();
+                        }
+                        unprocessedRequests.fail(future.channel(), requestId, future.cause());
                         log.error("发送失败...", future.cause());
                     }
                 }
             });
         } else {
-            throw new IllegalStateException();
+            resultFuture.completeExceptionally(new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(channel.remoteAddress())));
         }
-        return resultFuture;
     }
 
+    @Override
+    public Publisher<Object> sendStreamRequest(RpcRequest rpcRequest, RpcServiceConfig rpcServiceConfig) {
+        byte codec = SerializerRegistry.getCode(rpcServiceConfig.getSerialization());
+        return subscriber -> subscriber.onSubscribe(new RpcStreamSubscription(this, rpcRequest, codec, subscriber));
+    }
+
+    /**
+     * 发出流式请求。流式响应依赖 v2 帧的 flags，所以不管配置的版本是什么都使用 v2。
+     * 和普通请求一样异步获取连接，连接建立之前的需求先记在 subscription 中
+     */
+    void startStream(RpcStreamSubscription subscription) {
+        InetSocketAddress inetSocketAddress = serviceDiscovery.lookupService(subscription.getRpcRequest());
+        channelProvider.get(inetSocketAddress, this::doConnect).whenComplete((channel, cause) -> {
+            if (cause != null) {
+                subscription.fail(cause);
+            } else {
+                writeStreamRequest(channel, subscription);
+            }
+        });
+    }
+
+    private void writeStreamRequest(Channel channel, RpcStreamSubscription subscription) {
+        if (!channel.isActive()) {
+            subscription.fail(new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(channel.remoteAddress())));
+            return;
+        }
+        RpcRequest rpcRequest = subscription.getRpcRequest();
+        // 持有 subscription 的锁写出请求，之后 request(n) 发出的控制帧一定排在请求后面
+        synchronized (subscription) {
+            long requestId = unprocessedRequests.putStream(channel, subscription);
+            long demand = subscription.bind(channel, requestId);
+            if (demand < 0) {
+                // 连接建立之前已经取消
+                unprocessedRequests.removeStream(channel, requestId);
+                return;
+            }
+            RpcMessage rpcMessage = RpcMessage.builder()
+                    .version(RpcConstants.VERSION_2)
+                    .requestId(requestId)
+                    .flags(RpcConstants.FLAG_STREAMING)
+                    .data(methodDictionary.compact(channel, rpcRequest))
+                    .codec(subscription.getCodec())
+                    .compress(CompressRegistry.getConfiguredCode())
+                    .messageType(RpcConstants.REQUEST_TYPE)
+                    .build();
+            channel.writeAndFlush(rpcMessage).addListener((ChannelFutureListener) future -> {
+                if (future.isSuccess()) {
+                    methodDictionary.defined(future.channel(), rpcRequest);
+                } else {
+                    future.channel().close();
+                    unprocessedRequests.removeStream(future.channel(), requestId);
+                    subscription.fail(future.cause());
+                    log.error("发送失败...", future.cause());
+                }
+            });
+            if (demand > 0) {
+                sendStreamControl(subscription, demand);
+            }
+        }
+    }
+
+    void sendStreamControl(RpcStreamSubscription subscription, long n) {
+        writeStreamControl(subscription, RpcConstants.STREAM_REQUEST_N_TYPE, n);
+    }
+
+    void cancelStream(RpcStreamSubscription subscription) {
+        unprocessedRequests.removeStream(subscription.getChannel(), subscription.getRequestId());
+        writeStreamControl(subscription, RpcConstants.STREAM_CANCEL_TYPE, null);
+    }
+
+    private void writeStreamControl(RpcStreamSubscription subscription, byte messageType, Long n) {
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .version(RpcConstants.VERSION_2)
+                .requestId(subscription.getRequestId())
+                .flags(RpcConstants.FLAG_STREAMING)
+                .codec(subscription.getCodec())
+                .compress(CompressTypeEnum.NONE.getCode())
+                .messageType(messageType)
+                .data(n)
+                .build();
+        subscription.getChannel().writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    /**
+     * v1 的消息体和旧版本保持一致：不使用方法编号，请求 id 同时写进消息体，旧版本的服务端只会带回消息体中的 id
+     */
+    private static RpcRequest v1Request(RpcRequest rpcRequest, long requestId) {
+        return RpcRequest.builder()
+                .requestId(String.valueOf(requestId))
+                .interfaceName(rpcRequest.getInterfaceName())
+                .methodName(rpcRequest.getMethodName())
+                .parameters(rpcRequest.getParameters())
+                .paramTypes(rpcRequest.getParamTypes())
+                .group(rpcRequest.getGroup())
+                .version(rpcRequest.getVersion())
+                .build();
+    }
+
+    static byte protocolVersion() {
+        return PROTOCOL_VERSION;
+    }
+
+    /**
+     * 阻塞直到连接建立
+     *
+     * @throws RpcException 连接失败
+     */
+    @SneakyThrows
     public Channel getChannel(InetSocketAddress inetSocketAddress) {
-        Channel channel = channelProvider.get(inetSocketAddress);
-        if (channel == null) {
-            channel = doConnect(inetSocketAddress);
-            channelProvider.set(inetSocketAddress, channel);
+        try {
+            return channelProvider.get(inetSocketAddress, this::doConnect).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
         }
-        return channel;
     }
 
     public void close() {
@@ -1,19 +1,20 @@
 package com.bai.remoting.transport.netty.client;
 
-import com.bai.enums.CompressTypeEnum;
-import com.bai.enums.SerializationTypeEnum;
+import com.bai.compress.CompressRegistry;
+import com.bai.enums.RpcErrorMessageEnum;
+import com.bai.exception.RpcException;
 import com.bai.factory.SingletonFactory;
 import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
 import com.bai.remoting.dto.RpcMessage;
 import com.bai.remoting.dto.RpcResponse;
+import com.bai.serialize.SerializerRegistry;
 import io.netty.channel.*;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 
-import java.net.InetSocketAddress;
-
 /**
  * Customize the client ChannelHandler to process the data sent by the server
  *
@@ -27,11 +28,9 @@ import java.net.InetSocketAddress;
 @Slf4j
 public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
     private final UnprocessedRequests unprocessedRequests; //和NettyRpcClient进行联动，且是单例的
-    private final NettyRpcClient nettyRpcClient;
 
     public NettyRpcClientHandler() {
         this.unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
-        this.nettyRpcClient = SingletonFactory.getInstance(NettyRpcClient.class);
     }
 
     @Override
@@ -45,7 +44,17 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
                     log.info("heart [{}]", tmp.getData());
                 } else if (messageType == RpcConstants.RESPONSE_TYPE) { //响应的消息
                     RpcResponse<Object> rpcResponse = (RpcResponse<Object>) tmp.getData();
-                    unprocessedRequests.complete(rpcResponse);
+                    if ((tmp.getFlags() & RpcConstants.FLAG_STREAMING) != 0) {
+                        unprocessedRequests.completeStream(ctx.channel(), tmp.getRequestId(), rpcResponse,
+                                (tmp.getFlags() & RpcConstants.FLAG_END_STREAM) != 0);
+                    } else {
+                        unprocessedRequests.complete(ctx.channel(), requestId(tmp, rpcResponse), rpcResponse);
+                    }
+                } else if (messageType == RpcConstants.BATCH_RESPONSE_TYPE) { //批量响应，逐条交给对应的请求
+                    RpcBatch batch = (RpcBatch) tmp.getData();
+                    for (int i = 0; i < batch.size(); i++) {
+                        unprocessedRequests.complete(ctx.channel(), batch.getRequestIds()[i], (RpcResponse<Object>) batch.getItems()[i]);
+                    }
                 }
             }
         } finally {
@@ -53,6 +62,16 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 旧版本的服务端不回写 v1 帧头中的请求 id，只带回消息体中的 requestId，有的话按它匹配
+     */
+    private static long requestId(RpcMessage rpcMessage, RpcResponse<Object> rpcResponse) {
+        if (rpcMessage.getVersion() == RpcConstants.VERSION && rpcResponse.getRequestId() != null) {
+            return Long.parseLong(rpcResponse.getRequestId());
+        }
+        return rpcMessage.getRequestId();
+    }
+
     @Override
     // 心跳是由客户端发送的，逻辑在这里
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
@@ -60,10 +79,12 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
             IdleState state = ((IdleStateEvent) evt).state();
             if (state == IdleState.WRITER_IDLE) {
                 log.info("发生写空闲 [{}]", ctx.channel().remoteAddress());
-                Channel channel = nettyRpcClient.getChannel((InetSocketAddress) ctx.channel().remoteAddress());
+                // 连接池中每个连接各自发送心跳
+                Channel channel = ctx.channel();
                 RpcMessage rpcMessage = new RpcMessage();
-                rpcMessage.setCodec(SerializationTypeEnum.KYRO.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
+                rpcMessage.setVersion(NettyRpcClient.protocolVersion());
+                rpcMessage.setCodec(SerializerRegistry.getConfiguredCode());
+                rpcMessage.setCompress(CompressRegistry.getConfiguredCode());
                 rpcMessage.setMessageType(RpcConstants.HEARTBEAT_REQUEST_TYPE);
                 rpcMessage.setData(RpcConstants.PING);
                 channel.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
@@ -73,6 +94,17 @@ public class NettyRpcClientHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 连接断开，这个连接上的请求不会再收到响应，直接失败；重连由 ChannelProvider 在后台进行
+     */
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        log.info("连接已断开 [{}]", ctx.channel().remoteAddress());
+        unprocessedRequests.failAll(ctx.channel(),
+                new RpcException(RpcErrorMessageEnum.CHANNEL_CLOSED, String.valueOf(ctx.channel().remoteAddress())));
+        super.channelInactive(ctx);
+    }
+
     /**
      * 在处理客户端消息时发生异常时调用
      */
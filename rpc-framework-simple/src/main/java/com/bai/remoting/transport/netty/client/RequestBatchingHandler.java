@@ -0,0 +1,166 @@
+package com.bai.remoting.transport.netty.client;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
+import com.bai.remoting.dto.RpcMessage;
+import com.bai.utils.RpcConfigUtil;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把同一连接上短时间内的多个请求打包成一个批量帧(RpcConstants.BATCH_REQUEST_TYPE)，
+ * 多条小请求共用一个帧头，一起压缩，一次系统调用写出。
+ * 第一条请求到达后最多等待 maxLinger 凑批，实际等待时间按最近请求到达的间隔估算：
+ * 请求稀疏时不等待，直接发送；攒够 maxMessages 条时立即发送。
+ * 放在 RpcMessageEncoder 之后(更靠近 tail)，只在 channel 的 EventLoop 中访问
+ */
+public class RequestBatchingHandler extends ChannelOutboundHandlerAdapter {
+    private static final int DEFAULT_MAX_MESSAGES = 32;
+    private static final long DEFAULT_MAX_LINGER_US = 200;
+    private final int maxMessages;
+    private final long maxLingerNanos;
+    private final List<RpcMessage> pendingMessages = new ArrayList<>();
+    private final List<ChannelPromise> pendingPromises = new ArrayList<>();
+    // 请求到达间隔的滑动平均，初始认为请求很稀疏
+    private long averageGapNanos;
+    private long lastArrivalNanos;
+    private ChannelHandlerContext ctx;
+    private ScheduledFuture<?> lingerTask;
+
+    public RequestBatchingHandler() {
+        this(RpcConfigUtil.getInt(RpcConfigEnum.CLIENT_BATCHING_MAX_MESSAGES, DEFAULT_MAX_MESSAGES),
+                RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_BATCHING_MAX_LINGER_US, DEFAULT_MAX_LINGER_US));
+    }
+
+    public RequestBatchingHandler(int maxMessages, long maxLingerMicros) {
+        this.maxMessages = maxMessages;
+        this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(maxLingerMicros);
+        this.averageGapNanos = maxLingerNanos;
+    }
+
+    /**
+     * 是否开启批量发送，由 rpc.client.batching 控制
+     */
+    public static boolean enabled() {
+        return RpcConfigUtil.getBoolean(RpcConfigEnum.CLIENT_BATCHING, false);
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        if (!batchable(msg)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        RpcMessage rpcMessage = (RpcMessage) msg;
+        long now = System.nanoTime();
+        if (lastArrivalNanos != 0) {
+            averageGapNanos += (now - lastArrivalNanos - averageGapNanos) / 8;
+        }
+        lastArrivalNanos = now;
+        if (!pendingMessages.isEmpty() && !sameEncoding(pendingMessages.get(0), rpcMessage)) {
+            // 一个批量帧只能使用一种序列化和压缩方式
+            writeBatch();
+        }
+        if (pendingMessages.isEmpty() && averageGapNanos >= maxLingerNanos) {
+            // 等待期间大概率不会有新请求，不值得增加延迟
+            ctx.write(msg, promise);
+            return;
+        }
+        pendingMessages.add(rpcMessage);
+        pendingPromises.add(promise);
+        if (pendingMessages.size() >= maxMessages) {
+            writeBatch();
+            ctx.flush();
+        } else if (lingerTask == null) {
+            // 预计凑满一批需要的时间，不超过 maxLinger
+            long linger = Math.min(maxLingerNanos, averageGapNanos * (maxMessages - 1));
+            lingerTask = ctx.executor().schedule(() -> {
+                lingerTask = null;
+                writeBatch();
+                this.ctx.flush();
+            }, linger, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        writeBatch();
+        ctx.flush();
+        super.close(ctx, promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        writeBatch();
+        ctx.flush();
+    }
+
+    private void writeBatch() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        int size = pendingMessages.size();
+        if (size == 0) {
+            return;
+        }
+        if (size == 1) {
+            ctx.write(pendingMessages.get(0), pendingPromises.get(0));
+        } else {
+            long[] requestIds = new long[size];
+            Object[] items = new Object[size];
+            for (int i = 0; i < size; i++) {
+                requestIds[i] = pendingMessages.get(i).getRequestId();
+                items[i] = pendingMessages.get(i).getData();
+            }
+            RpcMessage first = pendingMessages.get(0);
+            RpcMessage batch = RpcMessage.builder()
+                    .version(RpcConstants.VERSION_2)
+                    .messageType(RpcConstants.BATCH_REQUEST_TYPE)
+                    .codec(first.getCodec())
+                    .compress(first.getCompress())
+                    .data(new RpcBatch(requestIds, items))
+                    .build();
+            // 批量帧写出的结果通知给其中每一条请求
+            ChannelPromise[] promises = pendingPromises.toArray(new ChannelPromise[0]);
+            ctx.write(batch).addListener((ChannelFutureListener) future -> {
+                for (ChannelPromise promise : promises) {
+                    if (future.isSuccess()) {
+                        promise.trySuccess();
+                    } else {
+                        promise.tryFailure(future.cause());
+                    }
+                }
+            });
+        }
+        pendingMessages.clear();
+        pendingPromises.clear();
+    }
+
+    private static boolean batchable(Object msg) {
+        if (!(msg instanceof RpcMessage)) {
+            return false;
+        }
+        RpcMessage rpcMessage = (RpcMessage) msg;
+        return rpcMessage.getVersion() == RpcConstants.VERSION_2
+                && rpcMessage.getMessageType() == RpcConstants.REQUEST_TYPE
+                && rpcMessage.getFlags() == 0;
+    }
+
+    private static boolean sameEncoding(RpcMessage a, RpcMessage b) {
+        return a.getCodec() == b.getCodec() && a.getCompress() == b.getCompress();
+    }
+}
@@ -0,0 +1,119 @@
+package com.bai.remoting.transport.netty.client;
+
+import com.bai.enums.RpcErrorMessageEnum;
+import com.bai.enums.RpcResponseCodeEnum;
+import com.bai.exception.RpcException;
+import com.bai.remoting.dto.RpcRequest;
+import com.bai.remoting.dto.RpcResponse;
+import io.netty.channel.Channel;
+import lombok.Getter;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * 客户端的一次流式调用。第一次 request(n) 时才真正发出请求，之后的需求和取消都作为控制帧发给服务端；
+ * 连接建立之前的需求先累加，请求发出以后一起发给服务端。
+ * 响应在 channel 的 EventLoop 中依次交给订阅者
+ */
+public class RpcStreamSubscription implements Subscription {
+    private final NettyRpcClient nettyRpcClient;
+    @Getter
+    private final RpcRequest rpcRequest;
+    @Getter
+    private final byte codec;
+    private final Subscriber<? super Object> subscriber;
+    private Channel channel;
+    private long requestId;
+    private boolean started;
+    // 连接建立之前收到的需求
+    private long pendingDemand;
+    private volatile boolean done;
+
+    RpcStreamSubscription(NettyRpcClient nettyRpcClient, RpcRequest rpcRequest, byte codec, Subscriber<? super Object> subscriber) {
+        this.nettyRpcClient = nettyRpcClient;
+        this.rpcRequest = rpcRequest;
+        this.codec = codec;
+        this.subscriber = subscriber;
+    }
+
+    @Override
+    public synchronized void request(long n) {
+        if (done) {
+            return;
+        }
+        if (n <= 0) {
+            cancel();
+            subscriber.onError(new IllegalArgumentException("request amount must be positive: " + n));
+            return;
+        }
+        if (channel == null) {
+            pendingDemand = pendingDemand + n < 0 ? Long.MAX_VALUE : pendingDemand + n;
+            if (!started) {
+                started = true;
+                try {
+                    nettyRpcClient.startStream(this);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+            return;
+        }
+        nettyRpcClient.sendStreamControl(this, n);
+    }
+
+    @Override
+    public synchronized void cancel() {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (channel != null) {
+            nettyRpcClient.cancelStream(this);
+        }
+    }
+
+    /**
+     * @return 连接建立之前累计的需求；已经取消或失败时返回 -1
+     */
+    synchronized long bind(Channel channel, long requestId) {
+        if (done) {
+            return -1;
+        }
+        this.channel = channel;
+        this.requestId = requestId;
+        long demand = pendingDemand;
+        pendingDemand = 0;
+        return demand;
+    }
+
+    synchronized Channel getChannel() {
+        return channel;
+    }
+
+    synchronized long getRequestId() {
+        return requestId;
+    }
+
+    void onResponse(RpcResponse<Object> rpcResponse, boolean endStream) {
+        if (done) {
+            return;
+        }
+        if (rpcResponse.getCode() == null || rpcResponse.getCode() != RpcResponseCodeEnum.SUCCESS.getCode()) {
+            done = true;
+            subscriber.onError(new RpcException(RpcErrorMessageEnum.SERVICE_INVOCATION_FAILURE, "interfaceName:" + rpcRequest.getInterfaceName()));
+        } else if (endStream) {
+            done = true;
+            subscriber.onComplete();
+        } else {
+            subscriber.onNext(rpcResponse.getData());
+        }
+    }
+
+    void fail(Throwable cause) {
+        if (done) {
+            return;
+        }
+        done = true;
+        subscriber.onError(cause);
+    }
+}
@@ -1,25 +1,158 @@
 package com.bai.remoting.transport.netty.client;
 
+import com.bai.enums.RpcConfigEnum;
+import com.bai.exception.RpcTimeoutException;
+import com.bai.factory.SingletonFactory;
+import com.bai.metrics.RpcClientMetrics;
+import com.bai.remoting.constants.RpcConstants;
 import com.bai.remoting.dto.RpcResponse;
+import com.bai.utils.RpcConfigUtil;
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
 
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
+/**
+ * 每个连接一张未完成请求表(InFlightTable)，请求 id 在连接内自增，响应带回同一个 id。
+ * 每个请求在时间轮上登记一个超时，到期还没有收到响应就移除登记并以 RpcTimeoutException 结束
+ */
+@Slf4j
 public class UnprocessedRequests {
-    // 保持UUID - future对象的映射
-    private static final Map<String, CompletableFuture<RpcResponse<Object>>> UNPROCESSED_RESPONSE_FUTURES = new ConcurrentHashMap<>();
+    private static final long DEFAULT_TIMEOUT_MS = RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_TIMEOUT_MS, 5000);
+    // 所有连接共用一个时间轮，不为每个请求单独创建定时任务；对冲请求的延迟发送也使用它
+    static final HashedWheelTimer TIMER = new HashedWheelTimer(new DefaultThreadFactory("rpc-timeout", true),
+            RpcConfigUtil.getLong(RpcConfigEnum.CLIENT_TIMEOUT_TICK_MS, 10), TimeUnit.MILLISECONDS);
+    // 保持连接内请求 id - future对象的映射
+    private static final AttributeKey<InFlightTable<CompletableFuture<RpcResponse<Object>>>> UNPROCESSED_RESPONSE_FUTURES = AttributeKey.valueOf("unprocessedResponseFutures");
+    // 保持连接内请求 id - 流式调用的映射，一个请求会收到多条响应
+    private static final AttributeKey<InFlightTable<RpcStreamSubscription>> UNPROCESSED_STREAMS = AttributeKey.valueOf("unprocessedStreams");
+    private static final AttributeKey<AtomicLong> REQUEST_ID_GENERATOR = AttributeKey.valueOf("requestIdGenerator");
 
-    public void put(String requestId, CompletableFuture<RpcResponse<Object>> future) {
-        UNPROCESSED_RESPONSE_FUTURES.put(requestId, future);
+    private final RpcClientMetrics metrics = SingletonFactory.getInstance(RpcClientMetrics.class);
+
+    /**
+     * 分配一个新的请求 id 并登记 future
+     *
+     * @param version 帧格式版本，v1 帧头只能携带 32 位的 id
+     * @param timeout 超时毫秒数，0 表示使用 rpc.client.timeout-ms
+     */
+    public long put(Channel channel, byte version, CompletableFuture<RpcResponse<Object>> future, long timeout) {
+        long requestId = nextRequestId(channel, version);
+        InFlightTable<CompletableFuture<RpcResponse<Object>>> futures = futures(channel);
+        futures.put(requestId, future);
+        long timeoutMillis = timeout > 0 ? timeout : DEFAULT_TIMEOUT_MS;
+        Timeout expiry = TIMER.newTimeout(t -> {
+            // 只移除自己登记的 future，id 回绕后被别的请求复用时不受影响
+            if (futures.remove(requestId, future)) {
+                metrics.recordTimeout();
+                future.completeExceptionally(new RpcTimeoutException(channel.remoteAddress() + " requestId:" + requestId
+                        + " timeout:" + timeoutMillis + "ms"));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        // 收到响应或者失败时取消时间轮上的超时；对冲中落败被取消的请求同时移除登记
+        future.whenComplete((response, cause) -> {
+            expiry.cancel();
+            futures.remove(requestId, future);
+        });
+        return requestId;
+    }
+
+    /**
+     * 分配一个新的请求 id 并登记流式调用，流式调用只使用 v2 帧
+     */
+    public long putStream(Channel channel, RpcStreamSubscription subscription) {
+        long requestId = nextRequestId(channel, RpcConstants.VERSION_2);
+        streams(channel).put(requestId, subscription);
+        return requestId;
+    }
+
+    /**
+     * 把一条流式响应交给订阅者，最后一帧时移除登记
+     */
+    public void completeStream(Channel channel, long requestId, RpcResponse<Object> rpcResponse, boolean endStream) {
+        InFlightTable<RpcStreamSubscription> streams = streams(channel);
+        RpcStreamSubscription subscription = endStream ? streams.remove(requestId) : streams.get(requestId);
+        if (subscription != null) {
+            subscription.onResponse(rpcResponse, endStream);
+        }
+    }
+
+    public void removeStream(Channel channel, long requestId) {
+        streams(channel).remove(requestId);
+    }
+
+    /**
+     * 连接断开时让这个连接上所有还在等待的请求立即失败
+     */
+    public void failAll(Channel channel, Throwable cause) {
+        InFlightTable<CompletableFuture<RpcResponse<Object>>> futures = channel.attr(UNPROCESSED_RESPONSE_FUTURES).get();
+        if (futures != null) {
+            futures.drain(future -> future.completeExceptionally(cause));
+        }
+        InFlightTable<RpcStreamSubscription> streams = channel.attr(UNPROCESSED_STREAMS).get();
+        if (streams != null) {
+            streams.drain(subscription -> subscription.fail(cause));
+        }
+    }
+
+    /**
+     * 连接上还没有完成的请求数，包括进行中的流式调用
+     */
+    public int pendingCount(Channel channel) {
+        return futures(channel).size() + streams(channel).size();
     }
 
-    public void complete(RpcResponse<Object> rpcResponse) {
-        CompletableFuture<RpcResponse<Object>> future = UNPROCESSED_RESPONSE_FUTURES.remove(rpcResponse.getRequestId());
+    private static long nextRequestId(Channel channel, byte version) {
+        long requestId = getOrInit(channel.attr(REQUEST_ID_GENERATOR), AtomicLong::new).incrementAndGet();
+        if (version != RpcConstants.VERSION_2) {
+            requestId &= RpcConstants.MAX_REQUEST_ID_V1;
+        }
+        return requestId;
+    }
+
+    public void complete(Channel channel, long requestId, RpcResponse<Object> rpcResponse) {
+        CompletableFuture<RpcResponse<Object>> future = futures(channel).remove(requestId);
         if (future != null) {
             future.complete(rpcResponse);
         } else {
-            throw new IllegalStateException();
+            // 请求已经超时，迟到的响应直接丢弃
+            log.warn("丢弃没有对应请求的响应 [{}] requestId:[{}]", channel.remoteAddress(), requestId);
+        }
+    }
+
+    /**
+     * 请求没能发出去时移除登记并让调用方失败
+     */
+    public void fail(Channel channel, long requestId, Throwable cause) {
+        CompletableFuture<RpcResponse<Object>> future = futures(channel).remove(requestId);
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    private static InFlightTable<CompletableFuture<RpcResponse<Object>>> futures(Channel channel) {
+        return getOrInit(channel.attr(UNPROCESSED_RESPONSE_FUTURES), InFlightTable::new);
+    }
+
+    private static InFlightTable<RpcStreamSubscription> streams(Channel channel) {
+        return getOrInit(channel.attr(UNPROCESSED_STREAMS), InFlightTable::new);
+    }
+
+    private static <T> T getOrInit(Attribute<T> attr, Supplier<T> supplier) {
+        T value = attr.get();
+        if (value == null) {
+            T initial = supplier.get();
+            T old = attr.setIfAbsent(initial);
+            value = old != null ? old : initial;
         }
+        return value;
     }
 }
@@ -0,0 +1,86 @@
+package com.bai.remoting.transport.netty.codec;
+
+import com.bai.remoting.constants.RpcConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * 把一个已经编码好的大 v2 帧按 chunkSize 拆成多个续帧。
+ * 每一帧复用原帧头(最后一帧之前加上 FLAG_CONTINUATION)，消息体是原帧的切片，不拷贝
+ */
+class ContinuationFrames implements ChunkedInput<ByteBuf> {
+    // 帧头中 flags 的位置：magic, version, messageType, codec|compress, flags
+    private static final int FLAGS_INDEX = RpcConstants.HEAD_FIXED_LENGTH_V2 - 1;
+    private final ByteBuf frame;
+    private final int prefixStart;
+    private final int prefixLength;
+    private final int bodyStart;
+    private final int bodyEnd;
+    private final int chunkSize;
+    private int offset;
+    private boolean closed;
+
+    /**
+     * @param frame     完整的 v2 帧，所有权交给这个对象
+     * @param bodyStart 消息体在 frame 中的起始位置
+     */
+    ContinuationFrames(ByteBuf frame, int bodyStart, int chunkSize) {
+        this.frame = frame;
+        this.prefixStart = frame.readerIndex();
+        this.bodyStart = bodyStart;
+        this.bodyEnd = frame.writerIndex();
+        // 帧头去掉最后的 bodyLength，剩下的部分每一帧都一样
+        this.prefixLength = bodyStart - VarIntUtil.varIntSize(bodyEnd - bodyStart) - prefixStart;
+        this.chunkSize = chunkSize;
+        this.offset = bodyStart;
+    }
+
+    @Override
+    public boolean isEndOfInput() {
+        return offset >= bodyEnd;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            frame.release();
+        }
+    }
+
+    @Deprecated
+    @Override
+    public ByteBuf readChunk(ChannelHandlerContext ctx) {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public ByteBuf readChunk(ByteBufAllocator allocator) {
+        if (isEndOfInput()) {
+            return null;
+        }
+        int length = Math.min(chunkSize, bodyEnd - offset);
+        ByteBuf header = allocator.ioBuffer(prefixLength + VarIntUtil.MAX_VAR_INT_LENGTH);
+        header.writeBytes(frame, prefixStart, prefixLength);
+        if (offset + length < bodyEnd) {
+            header.setByte(FLAGS_INDEX, header.getByte(FLAGS_INDEX) | RpcConstants.FLAG_CONTINUATION);
+        }
+        VarIntUtil.writeVarInt(header, length);
+        ByteBuf chunk = allocator.compositeBuffer(2)
+                .addComponents(true, header, frame.retainedSlice(offset, length));
+        offset += length;
+        return chunk;
+    }
+
+    @Override
+    public long length() {
+        return bodyEnd - bodyStart;
+    }
+
+    @Override
+    public long progress() {
+        return offset - bodyStart;
+    }
+}
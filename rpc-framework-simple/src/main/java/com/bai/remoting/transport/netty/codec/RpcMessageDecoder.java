@@ -1,21 +1,30 @@
 package com.bai.remoting.transport.netty.codec;
 
 import com.bai.compress.Compress;
-import com.bai.compress.gzip.GzipCompress;
-import com.bai.enums.CompressTypeEnum;
-import com.bai.enums.SerializationTypeEnum;
+import com.bai.compress.CompressRegistry;
+import com.bai.enums.RpcConfigEnum;
 import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
 import com.bai.remoting.dto.RpcMessage;
 import com.bai.remoting.dto.RpcRequest;
 import com.bai.remoting.dto.RpcResponse;
 import com.bai.serialize.Serializer;
-import com.bai.serialize.kyro.KryoSerializer;
+import com.bai.serialize.SerializerRegistry;
+import com.bai.utils.RpcConfigUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.TooLongFrameException;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * custom protocol decoder
@@ -32,6 +41,15 @@ import java.util.Arrays;
  * 4B  magic code（魔法数）   1B version（版本）   4B full length（消息长度）    1B messageType（消息类型）
  * 1B compress（压缩类型） 1B codec（序列化类型）    4B  requestId（请求的Id）
  * body（object类型数据）
+ *
+ * v2 (第一个字节是 {@link RpcConstants#MAGIC_NUMBER_V2})
+ *   +-------+---------+-------------+---------------+-------+-------------------+--------------------+------+
+ *   | magic | version | messageType | codec|compress | flags | requestId varint64 | bodyLength varint32 | body |
+ *   +-------+---------+-------------+---------------+-------+-------------------+--------------------+------+
+ * 1B magic  1B version  1B messageType  1B 高4位序列化类型/低4位压缩类型  1B flags(RpcConstants.FLAG_*)
+ * requestId 是连接内自增的 64 位 id，小请求的帧头只有 7 个字节。
+ * 超过 chunk size 的消息体拆成多帧发送，除最后一帧外都带 FLAG_CONTINUATION，接收端按 requestId 拼接。
+ * 请求的 body 以 varint32 方法编号开头(批量请求是条数加每条的编号)，之后才是序列化的数据
  * </pre>
  * <p>
  * {@link LengthFieldBasedFrameDecoder} is a length-based decoder , used to solve TCP unpacking and sticking problems.
@@ -44,6 +62,16 @@ import java.util.Arrays;
  */
 @Slf4j
 public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
+    /**
+     * true: 直接从入站帧上解压和反序列化；false: 先把消息体读成 byte[]
+     */
+    private final boolean zeroCopy;
+    private final int maxMessageSize;
+    /**
+     * 正在拼接的续帧消息，key 是请求 id。每个 channel 一个 decoder，只在 EventLoop 中访问
+     */
+    private final Map<Long, PartialMessage> partialMessages = new HashMap<>();
+
     public RpcMessageDecoder() {
         // lengthFieldOffset: magic code is 4B, and version is 1B, and then full length. so value is 5
         // lengthFieldLength: full length is 4B. so value is 4
@@ -64,13 +92,33 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
     public RpcMessageDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
                              int lengthAdjustment, int initialBytesToStrip) {
         super(maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, initialBytesToStrip);
+        this.zeroCopy = RpcConfigUtil.getBoolean(RpcConfigEnum.CODEC_ZERO_COPY, true);
+        this.maxMessageSize = RpcConfigUtil.getInt(RpcConfigEnum.CODEC_MAX_MESSAGE_SIZE, RpcConstants.DEFAULT_MAX_MESSAGE_SIZE);
     }
 
     @Override
     protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
-        log.info("消息入界，开始从字节流解码...");
+        if (log.isDebugEnabled()) {
+            log.debug("消息入界，开始从字节流解码...");
+        }
+        if (in.isReadable() && in.getByte(in.readerIndex()) == RpcConstants.MAGIC_NUMBER_V2) {
+            ByteBuf frame = readFrameV2(in);
+            if (frame == null) {
+                return null;
+            }
+            try {
+                return decodeFrameV2(ctx, frame);
+            } catch (Exception e) {
+                log.error("Decode frame error!", e);
+                throw e;
+            } finally {
+                frame.release();
+            }
+        }
         Object decoded = super.decode(ctx, in);
-        log.info("查看一下decoded的类型[{}]", decoded.getClass().getName());
+        if (log.isDebugEnabled()) {
+            log.debug("查看一下decoded的类型[{}]", decoded == null ? null : decoded.getClass().getName());
+        }
         if (decoded instanceof ByteBuf) {
             ByteBuf frame = (ByteBuf) decoded;
             if (frame.readableBytes() >= RpcConstants.TOTAL_LENGTH) {
@@ -87,7 +135,102 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
         return decoded;
     }
 
-    private Object decodeFrame(ByteBuf in) {
+    /**
+     * v2 帧头是变长的，不能交给 LengthFieldBasedFrameDecoder，这里自己判断一帧是否已经收全
+     *
+     * @return 完整的一帧；数据还不够时返回 null
+     */
+    private ByteBuf readFrameV2(ByteBuf in) {
+        int start = in.readerIndex();
+        int idIndex = start + RpcConstants.HEAD_FIXED_LENGTH_V2;
+        int idLength = VarIntUtil.peekLength(in, idIndex, VarIntUtil.MAX_VAR_LONG_LENGTH);
+        if (idLength < 0) {
+            return null;
+        }
+        int lengthIndex = idIndex + idLength;
+        int lengthLength = VarIntUtil.peekLength(in, lengthIndex, VarIntUtil.MAX_VAR_INT_LENGTH);
+        if (lengthLength < 0) {
+            return null;
+        }
+        in.readerIndex(lengthIndex);
+        int bodyLength = VarIntUtil.readVarInt(in);
+        in.readerIndex(start);
+        if (bodyLength < 0 || bodyLength > RpcConstants.MAX_FRAME_LENGTH) {
+            throw new TooLongFrameException("frame body length exceeds " + RpcConstants.MAX_FRAME_LENGTH + ": " + bodyLength);
+        }
+        int frameLength = lengthIndex + lengthLength - start + bodyLength;
+        if (in.readableBytes() < frameLength) {
+            return null;
+        }
+        return in.readRetainedSlice(frameLength);
+    }
+
+    private Object decodeFrameV2(ChannelHandlerContext ctx, ByteBuf in) throws IOException {
+        in.skipBytes(1);
+        byte version = in.readByte();
+        if (version != RpcConstants.VERSION_2) {
+            throw new RuntimeException("version isn't compatible" + version);
+        }
+        byte messageType = in.readByte();
+        byte codecAndCompress = in.readByte();
+        RpcMessage rpcMessage = RpcMessage.builder()
+                .version(version)
+                .messageType(messageType)
+                .codec((byte) ((codecAndCompress & 0xF0) >>> 4))
+                .compress((byte) (codecAndCompress & 0x0F))
+                .flags(in.readByte())
+                .requestId(VarIntUtil.readVarLong(in))
+                .build();
+        int bodyLength = VarIntUtil.readVarInt(in);
+        boolean continuation = (rpcMessage.getFlags() & RpcConstants.FLAG_CONTINUATION) != 0;
+        PartialMessage partial = partialMessages.isEmpty() ? null : partialMessages.get(rpcMessage.getRequestId());
+        if (partial == null && !continuation) {
+            return decodeBody(in, rpcMessage, bodyLength);
+        }
+        return appendContinuation(ctx, in, rpcMessage, bodyLength, partial, continuation);
+    }
+
+    /**
+     * 续帧的消息体以切片的形式挂到 CompositeByteBuf 上，不拷贝；收到最后一帧后再整体解压和反序列化
+     *
+     * @return 最后一帧时返回完整的消息，否则返回 null
+     */
+    private Object appendContinuation(ChannelHandlerContext ctx, ByteBuf in, RpcMessage rpcMessage, int bodyLength,
+                                      PartialMessage partial, boolean continuation) throws IOException {
+        long requestId = rpcMessage.getRequestId();
+        if (partial == null) {
+            rpcMessage.setFlags((byte) (rpcMessage.getFlags() & ~RpcConstants.FLAG_CONTINUATION));
+            partial = new PartialMessage(rpcMessage, ctx.alloc().compositeBuffer(Integer.MAX_VALUE));
+            partialMessages.put(requestId, partial);
+        }
+        CompositeByteBuf body = partial.body;
+        if ((long) body.readableBytes() + bodyLength > maxMessageSize) {
+            partialMessages.remove(requestId);
+            body.release();
+            throw new TooLongFrameException("message body length exceeds " + maxMessageSize);
+        }
+        body.addComponent(true, in.readRetainedSlice(bodyLength));
+        if (continuation) {
+            return null;
+        }
+        partialMessages.remove(requestId);
+        try {
+            return decodeBody(body, partial.message, body.readableBytes());
+        } finally {
+            body.release();
+        }
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+        for (PartialMessage partial : partialMessages.values()) {
+            partial.body.release();
+        }
+        partialMessages.clear();
+        super.handlerRemoved0(ctx);
+    }
+
+    private Object decodeFrame(ByteBuf in) throws IOException {
         // note: must read ByteBuf in order
         checkMagicNumber(in);
         checkVersion(in);
@@ -96,13 +239,19 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
         byte messageType = in.readByte();
         byte codecType = in.readByte();
         byte compressType = in.readByte();
-        int requestId = in.readInt();
+        long requestId = in.readUnsignedInt();
         RpcMessage rpcMessage = RpcMessage.builder()
+                .version(RpcConstants.VERSION)
                 .codec(codecType)
                 .requestId(requestId)
                 .messageType(messageType)
                 .compress(compressType)
                 .build();
+        return decodeBody(in, rpcMessage, fullLength - RpcConstants.HEAD_LENGTH);
+    }
+
+    private RpcMessage decodeBody(ByteBuf in, RpcMessage rpcMessage, int bodyLength) throws IOException {
+        byte messageType = rpcMessage.getMessageType();
         // ping - pong
         if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
             rpcMessage.setData(RpcConstants.PING);
@@ -112,30 +261,89 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
             rpcMessage.setData(RpcConstants.PONG);
             return rpcMessage;
         }
+        if (messageType == RpcConstants.STREAM_REQUEST_N_TYPE) {
+            rpcMessage.setData(VarIntUtil.readVarLong(in));
+            return rpcMessage;
+        }
 
-        int bodyLength = fullLength - RpcConstants.HEAD_LENGTH;
+        int[] methodIds = null;
+        if (rpcMessage.getVersion() == RpcConstants.VERSION_2) {
+            int start = in.readerIndex();
+            methodIds = readMethodIds(in, messageType);
+            bodyLength -= in.readerIndex() - start;
+        }
         if (bodyLength > 0) {
-            byte[] bs = new byte[bodyLength];
-            in.readBytes(bs);
             // decompress the bytes
-            String compressName = CompressTypeEnum.getName(compressType);
-            Compress compress = new GzipCompress();
-            bs = compress.decompress(bs);
+            Compress compress = CompressRegistry.getCompress(rpcMessage.getCompress());
             // deserialize the object
-            String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-            log.info("codec name: [{}] ", codecName);
-            Serializer serializer = new KryoSerializer();
-            if (messageType == RpcConstants.REQUEST_TYPE) {
-                RpcRequest tmpValue = serializer.deserialize(bs, RpcRequest.class);
-                rpcMessage.setData(tmpValue);
+            Serializer serializer = SerializerRegistry.getSerializer(rpcMessage.getCodec());
+            if (log.isDebugEnabled()) {
+                log.debug("codec name: [{}] ", serializer.getName());
+            }
+            Class<?> clazz = bodyClass(messageType);
+            if (zeroCopy) {
+                rpcMessage.setData(readBody(in, bodyLength, serializer, compress, clazz));
             } else {
-                RpcResponse tmpValue = serializer.deserialize(bs, RpcResponse.class);
-                rpcMessage.setData(tmpValue);
+                byte[] bs = new byte[bodyLength];
+                in.readBytes(bs);
+                bs = compress.decompress(bs);
+                rpcMessage.setData(serializer.deserialize(bs, clazz));
             }
         }
+        if (methodIds != null) {
+            setMethodIds(rpcMessage, methodIds);
+        }
         return rpcMessage;
     }
 
+    /**
+     * 读出 v2 请求写在消息体前面的方法编号，见 RpcMessageEncoder
+     *
+     * @return 不是请求时返回 null
+     */
+    private static int[] readMethodIds(ByteBuf in, byte messageType) {
+        if (messageType == RpcConstants.REQUEST_TYPE) {
+            return new int[]{VarIntUtil.readVarInt(in)};
+        }
+        if (messageType == RpcConstants.BATCH_REQUEST_TYPE) {
+            int count = VarIntUtil.readVarInt(in);
+            // 每个编号至少占一个字节
+            if (count < 0 || count > in.readableBytes()) {
+                throw new CorruptedFrameException("malformed batch method ids: " + count);
+            }
+            int[] methodIds = new int[count];
+            for (int i = 0; i < methodIds.length; i++) {
+                methodIds[i] = VarIntUtil.readVarInt(in);
+            }
+            return methodIds;
+        }
+        return null;
+    }
+
+    private static void setMethodIds(RpcMessage rpcMessage, int[] methodIds) {
+        if (rpcMessage.getData() instanceof RpcRequest) {
+            ((RpcRequest) rpcMessage.getData()).setMethodId(methodIds[0]);
+        } else if (rpcMessage.getData() instanceof RpcBatch) {
+            Object[] items = ((RpcBatch) rpcMessage.getData()).getItems();
+            if (items.length != methodIds.length) {
+                throw new CorruptedFrameException("batch has " + items.length + " items but " + methodIds.length + " method ids");
+            }
+            for (int i = 0; i < items.length; i++) {
+                ((RpcRequest) items[i]).setMethodId(methodIds[i]);
+            }
+        }
+    }
+
+    private static Class<?> bodyClass(byte messageType) {
+        if (messageType == RpcConstants.REQUEST_TYPE) {
+            return RpcRequest.class;
+        }
+        if (messageType == RpcConstants.BATCH_REQUEST_TYPE || messageType == RpcConstants.BATCH_RESPONSE_TYPE) {
+            return RpcBatch.class;
+        }
+        return RpcResponse.class;
+    }
+
     private void checkVersion(ByteBuf in) {
         // read the version and compare
         byte version = in.readByte();
@@ -155,4 +363,23 @@ public class RpcMessageDecoder extends LengthFieldBasedFrameDecoder {
             }
         }
     }
+
+    private static class PartialMessage {
+        private final RpcMessage message;
+        private final CompositeByteBuf body;
+
+        PartialMessage(RpcMessage message, CompositeByteBuf body) {
+            this.message = message;
+            this.body = body;
+        }
+    }
+
+    /**
+     * 直接在入站帧上解压并反序列化，ByteBufInputStream 只读取 bodyLength 个字节
+     */
+    private Object readBody(ByteBuf in, int bodyLength, Serializer serializer, Compress compress, Class<?> clazz) throws IOException {
+        try (InputStream decompressStream = compress.decompress(new ByteBufInputStream(in, bodyLength))) {
+            return serializer.deserialize(decompressStream, clazz);
+        }
+    }
 }
@@ -1,64 +1,281 @@
 package com.bai.remoting.transport.netty.codec;
 
-import com.bai.compress.Compress;
-import com.bai.compress.gzip.GzipCompress;
+import com.bai.compress.CompressRegistry;
 import com.bai.enums.CompressTypeEnum;
-import com.bai.enums.SerializationTypeEnum;
+import com.bai.enums.RpcConfigEnum;
 import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
 import com.bai.remoting.dto.RpcMessage;
+import com.bai.remoting.dto.RpcRequest;
 import com.bai.serialize.Serializer;
-import com.bai.serialize.kyro.KryoSerializer;
+import com.bai.serialize.SerializerRegistry;
+import com.bai.utils.RpcConfigUtil;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.EncoderException;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.io.OutputStream;
 
 @Slf4j
 public class RpcMessageEncoder extends MessageToByteEncoder<RpcMessage> {
-    private static final AtomicInteger ATOMIC_INTEGER = new AtomicInteger(0);
+    /**
+     * 压缩后至少要省下 10% 才使用压缩结果
+     */
+    private static final double MAX_COMPRESS_RATIO = 0.9;
+    /**
+     * 压缩效果不好时，接下来的这么多条消息直接跳过压缩，之后再重新采样
+     */
+    private static final int POOR_RATIO_SKIP_MESSAGES = 64;
+    /**
+     * true: 序列化和压缩直接写入出站的池化 ByteBuf；false: 先得到 byte[] 再拷贝进 ByteBuf
+     */
+    private final boolean zeroCopy;
+    private final int compressMinSize;
+    private final int chunkSize;
+    // 每个 channel 一个 encoder，只会在 channel 的 EventLoop 中访问
+    private int poorRatioSkips;
 
+    public RpcMessageEncoder() {
+        this(RpcConfigUtil.getBoolean(RpcConfigEnum.CODEC_ZERO_COPY, true));
+    }
+
+    public RpcMessageEncoder(boolean zeroCopy) {
+        this.zeroCopy = zeroCopy;
+        this.compressMinSize = CompressRegistry.getMinSize();
+        this.chunkSize = Math.min(RpcConfigUtil.getInt(RpcConfigEnum.CODEC_CHUNK_SIZE, RpcConstants.DEFAULT_CHUNK_SIZE),
+                RpcConstants.MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * v2 消息体超过 chunkSize 时拆成多个续帧，由 pipeline 中的 ChunkedWriteHandler 在 channel 可写时逐帧写出，
+     * 对端读得慢时不会把整条消息一次性压进出站缓冲区
+     */
     @Override
-    protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) {
-        log.info("消息出界，开始将对象转换为字节流...");
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof RpcMessage) || ((RpcMessage) msg).getVersion() != RpcConstants.VERSION_2) {
+            super.write(ctx, msg, promise);
+            return;
+        }
+        ByteBuf out = ctx.alloc().ioBuffer();
+        int bodyStart;
         try {
-            out.writeBytes(RpcConstants.MAGIC_NUMBER);
-            out.writeByte(RpcConstants.VERSION);
-            // leave a place to write the value of full length
-            out.writerIndex(out.writerIndex() + 4);
-            byte messageType = rpcMessage.getMessageType();
-            out.writeByte(messageType);
-            out.writeByte(rpcMessage.getCodec());
-            out.writeByte(CompressTypeEnum.GZIP.getCode());
-            out.writeInt(ATOMIC_INTEGER.getAndIncrement());
-            // build full length
-            byte[] bodyBytes = null;
-            int fullLength = RpcConstants.HEAD_LENGTH;
-            // if messageType is not heartbeat message,fullLength = head length + body length
-            if (messageType != RpcConstants.HEARTBEAT_REQUEST_TYPE
-                    && messageType != RpcConstants.HEARTBEAT_RESPONSE_TYPE) {
-                // serialize the object
-                String codecName = SerializationTypeEnum.getName(rpcMessage.getCodec());
-                log.info("codec name: [{}] ", codecName);
-                Serializer serializer = new KryoSerializer();
-                bodyBytes = serializer.serialize(rpcMessage.getData());
-                // compress the bytes
-                String compressName = CompressTypeEnum.getName(rpcMessage.getCompress());
-                Compress compress = new GzipCompress();
-                bodyBytes = compress.compress(bodyBytes);
-                fullLength += bodyBytes.length;
+            bodyStart = encodeV2(ctx, (RpcMessage) msg, out);
+        } catch (Exception e) {
+            out.release();
+            log.error("Encode request error!", e);
+            promise.setFailure(new EncoderException(e));
+            return;
+        }
+        if (out.writerIndex() - bodyStart <= chunkSize) {
+            ctx.write(out, promise);
+        } else {
+            ctx.write(new ContinuationFrames(out, bodyStart, chunkSize), promise);
+        }
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) throws Exception {
+        if (log.isDebugEnabled()) {
+            log.debug("消息出界，开始将对象转换为字节流...");
+        }
+        // 编码失败时异常交给 MessageToByteEncoder，由它让这次写入的 promise 失败
+        if (rpcMessage.getVersion() == RpcConstants.VERSION_2) {
+            encodeV2(ctx, rpcMessage, out);
+        } else {
+            encodeV1(ctx, rpcMessage, out);
+        }
+    }
+
+    private void encodeV1(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) throws IOException {
+        out.writeBytes(RpcConstants.MAGIC_NUMBER);
+        out.writeByte(RpcConstants.VERSION);
+        // leave a place to write the value of full length
+        out.writerIndex(out.writerIndex() + 4);
+        byte messageType = rpcMessage.getMessageType();
+        out.writeByte(messageType);
+        out.writeByte(rpcMessage.getCodec());
+        // 实际使用的压缩算法要等消息体写完才知道，先占位
+        int compressIndex = out.writerIndex();
+        out.writeByte(CompressTypeEnum.NONE.getCode());
+        long requestId = rpcMessage.getRequestId();
+        if (requestId < 0 || requestId > RpcConstants.MAX_REQUEST_ID_V1) {
+            throw new IllegalArgumentException("v1 requestId out of range: " + requestId);
+        }
+        out.writeInt((int) requestId);
+        // build full length
+        int fullLength = RpcConstants.HEAD_LENGTH;
+        // if messageType is not heartbeat message,fullLength = head length + body length
+        if (hasBody(messageType)) {
+            int bodyStart = out.writerIndex();
+            out.setByte(compressIndex, writeBody(ctx, out, rpcMessage));
+            fullLength += out.writerIndex() - bodyStart;
+        }
+
+        int writeIndex = out.writerIndex();
+        out.writerIndex(writeIndex - fullLength + RpcConstants.MAGIC_NUMBER.length + 1);
+        out.writeInt(fullLength); //回退指针，写入消息长度
+        out.writerIndex(writeIndex);
+    }
+
+    /**
+     * v2 帧: magic(1) version(1) messageType(1) codec|compress(1) flags(1) requestId(varint64) bodyLength(varint32) body。
+     * 消息体长度要写完才知道，先按最大长度预留 5 字节，写完后把长度紧贴消息体写入，
+     * 再把前面的帧头往后挪，多出来的空位通过 readerIndex 跳过，不需要再拷贝消息体
+     *
+     * @return 消息体在 out 中的起始位置
+     */
+    private int encodeV2(ChannelHandlerContext ctx, RpcMessage rpcMessage, ByteBuf out) throws IOException {
+        int start = out.writerIndex();
+        byte messageType = rpcMessage.getMessageType();
+        out.writeByte(RpcConstants.MAGIC_NUMBER_V2);
+        out.writeByte(RpcConstants.VERSION_2);
+        out.writeByte(messageType);
+        // 高 4 位序列化方式，低 4 位压缩算法；压缩算法要等消息体写完才知道
+        int codecIndex = out.writerIndex();
+        out.writeByte(rpcMessage.getCodec() << 4);
+        int flagsIndex = out.writerIndex();
+        byte flags = (byte) (rpcMessage.getFlags() & ~RpcConstants.FLAG_COMPRESSED);
+        out.writeByte(flags);
+        VarIntUtil.writeVarLong(out, rpcMessage.getRequestId());
+        int prefixLength = out.writerIndex() - start;
+        out.writerIndex(out.writerIndex() + VarIntUtil.MAX_VAR_INT_LENGTH);
+        int bodyStart = out.writerIndex();
+        byte compressType = CompressTypeEnum.NONE.getCode();
+        if (hasBody(messageType)) {
+            compressType = writeBody(ctx, out, rpcMessage);
+        }
+        out.setByte(codecIndex, rpcMessage.getCodec() << 4 | compressType & 0x0F);
+        if (compressType != CompressTypeEnum.NONE.getCode()) {
+            out.setByte(flagsIndex, flags | RpcConstants.FLAG_COMPRESSED);
+        }
+        int bodyLength = out.writerIndex() - bodyStart;
+        int gap = VarIntUtil.MAX_VAR_INT_LENGTH - VarIntUtil.varIntSize(bodyLength);
+        VarIntUtil.setVarInt(out, start + prefixLength + gap, bodyLength);
+        if (gap > 0) {
+            for (int i = prefixLength - 1; i >= 0; i--) {
+                out.setByte(start + gap + i, out.getByte(start + i));
             }
+            out.readerIndex(start + gap);
+        }
+        return bodyStart;
+    }
+
+    private static boolean hasBody(byte messageType) {
+        return messageType != RpcConstants.HEARTBEAT_REQUEST_TYPE
+                && messageType != RpcConstants.HEARTBEAT_RESPONSE_TYPE
+                && messageType != RpcConstants.STREAM_CANCEL_TYPE;
+    }
 
-            if (bodyBytes != null) {
-                out.writeBytes(bodyBytes);
+    /**
+     * @return 消息体实际使用的压缩算法
+     */
+    private byte writeBody(ChannelHandlerContext ctx, ByteBuf out, RpcMessage rpcMessage) throws IOException {
+        if (rpcMessage.getMessageType() == RpcConstants.STREAM_REQUEST_N_TYPE) {
+            // 流控消息只有一个数字，不走序列化
+            VarIntUtil.writeVarLong(out, (Long) rpcMessage.getData());
+            return CompressTypeEnum.NONE.getCode();
+        }
+        if (rpcMessage.getVersion() == RpcConstants.VERSION_2) {
+            writeMethodIds(out, rpcMessage);
+        }
+        // serialize the object
+        Serializer serializer = SerializerRegistry.getSerializer(rpcMessage.getCodec());
+        if (log.isDebugEnabled()) {
+            log.debug("codec name: [{}] ", serializer.getName());
+        }
+        return zeroCopy
+                ? writeBody(ctx, out, rpcMessage.getData(), serializer, rpcMessage.getCompress())
+                : writeBody(out, rpcMessage.getData(), serializer, rpcMessage.getCompress());
+    }
+
+    /**
+     * 方法编号不参与序列化，v1 的消息体和旧版本保持一致；v2 请求把编号写在消息体前面，不压缩。
+     * 批量请求先写条数，再按顺序写每条请求的编号
+     */
+    private static void writeMethodIds(ByteBuf out, RpcMessage rpcMessage) {
+        if (rpcMessage.getMessageType() == RpcConstants.REQUEST_TYPE) {
+            VarIntUtil.writeVarInt(out, ((RpcRequest) rpcMessage.getData()).getMethodId());
+        } else if (rpcMessage.getMessageType() == RpcConstants.BATCH_REQUEST_TYPE) {
+            Object[] items = ((RpcBatch) rpcMessage.getData()).getItems();
+            VarIntUtil.writeVarInt(out, items.length);
+            for (Object item : items) {
+                VarIntUtil.writeVarInt(out, ((RpcRequest) item).getMethodId());
             }
-            int writeIndex = out.writerIndex();
-            out.writerIndex(writeIndex - fullLength + RpcConstants.MAGIC_NUMBER.length + 1);
-            out.writeInt(fullLength); //回退指针，写入消息长度
-            out.writerIndex(writeIndex);
-        } catch (Exception e) {
-            log.error("Encode request error!", e);
         }
     }
+
+    /**
+     * 序列化结果直接写进 out，不产生完整负载大小的中间数组。
+     * 值得压缩时再把这段数据压缩到一块池化的临时 ByteBuf，压缩效果好才替换回 out
+     *
+     * @return 消息体实际使用的压缩算法
+     */
+    private byte writeBody(ChannelHandlerContext ctx, ByteBuf out, Object data, Serializer serializer, byte compressType) throws IOException {
+        int bodyStart = out.writerIndex();
+        serializer.serialize(data, new ByteBufOutputStream(out));
+        int rawLength = out.writerIndex() - bodyStart;
+        if (!shouldCompress(compressType, rawLength)) {
+            return CompressTypeEnum.NONE.getCode();
+        }
+        ByteBuf compressed = ctx.alloc().ioBuffer(rawLength);
+        try {
+            try (OutputStream compressStream = CompressRegistry.getCompress(compressType).compress(new ByteBufOutputStream(compressed))) {
+                out.getBytes(bodyStart, compressStream, rawLength);
+            }
+            if (!acceptRatio(compressed.readableBytes(), rawLength)) {
+                return CompressTypeEnum.NONE.getCode();
+            }
+            out.writerIndex(bodyStart);
+            out.writeBytes(compressed);
+            return compressType;
+        } finally {
+            compressed.release();
+        }
+    }
+
+    /**
+     * 先得到 byte[] 再拷贝进 out 的编码方式
+     *
+     * @return 消息体实际使用的压缩算法
+     */
+    private byte writeBody(ByteBuf out, Object data, Serializer serializer, byte compressType) {
+        byte[] bodyBytes = serializer.serialize(data);
+        if (shouldCompress(compressType, bodyBytes.length)) {
+            byte[] compressed = CompressRegistry.getCompress(compressType).compress(bodyBytes);
+            if (acceptRatio(compressed.length, bodyBytes.length)) {
+                out.writeBytes(compressed);
+                return compressType;
+            }
+        }
+        out.writeBytes(bodyBytes);
+        return CompressTypeEnum.NONE.getCode();
+    }
+
+    private boolean shouldCompress(byte compressType, int rawLength) {
+        if (compressType == CompressTypeEnum.NONE.getCode() || rawLength < compressMinSize) {
+            return false;
+        }
+        if (poorRatioSkips > 0) {
+            poorRatioSkips--;
+            return false;
+        }
+        return true;
+    }
+
+    private boolean acceptRatio(int compressedLength, int rawLength) {
+        if (compressedLength > rawLength * MAX_COMPRESS_RATIO) {
+            // 不可压缩的负载每隔 POOR_RATIO_SKIP_MESSAGES 条消息就会走到这里，不能按 INFO 打印
+            if (log.isDebugEnabled()) {
+                log.debug("压缩率太低[{}/{}]，接下来[{}]条消息不再压缩", compressedLength, rawLength, POOR_RATIO_SKIP_MESSAGES);
+            }
+            poorRatioSkips = POOR_RATIO_SKIP_MESSAGES;
+            return false;
+        }
+        return true;
+    }
 }
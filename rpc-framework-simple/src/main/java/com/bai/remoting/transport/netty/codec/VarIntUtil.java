@@ -0,0 +1,95 @@
+package com.bai.remoting.transport.netty.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+/**
+ * v2 帧头使用的无符号变长整数(LEB128)：每个字节低 7 位存数据，最高位表示后面是否还有字节。
+ * 小于 128 的值只占 1 个字节
+ */
+public class VarIntUtil {
+    public static final int MAX_VAR_INT_LENGTH = 5;
+    public static final int MAX_VAR_LONG_LENGTH = 10;
+
+    private VarIntUtil() {
+    }
+
+    public static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * 在 index 处写入变长整数，不改变 writerIndex
+     */
+    public static void setVarInt(ByteBuf out, int index, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.setByte(index++, (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.setByte(index, value);
+    }
+
+    public static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_VAR_INT_LENGTH; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("malformed varint");
+    }
+
+    public static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 7 * MAX_VAR_LONG_LENGTH; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new CorruptedFrameException("malformed varlong");
+    }
+
+    /**
+     * 不移动读指针，计算从 index 开始的变长整数占几个字节
+     *
+     * @param maxLength 允许的最大字节数，超过说明数据已损坏
+     * @return 字节数；数据还没收全时返回 -1
+     */
+    public static int peekLength(ByteBuf in, int index, int maxLength) {
+        int end = in.writerIndex();
+        for (int i = 0; i < maxLength; i++) {
+            if (index + i >= end) {
+                return -1;
+            }
+            if (in.getByte(index + i) >= 0) {
+                return i + 1;
+            }
+        }
+        throw new CorruptedFrameException("malformed varint");
+    }
+}
@@ -1,10 +1,11 @@
 package com.bai.remoting.transport.netty.server;
 
-import com.bai.enums.CompressTypeEnum;
+import com.bai.compress.CompressRegistry;
 import com.bai.enums.RpcResponseCodeEnum;
-import com.bai.enums.SerializationTypeEnum;
+import com.bai.exception.RpcException;
 import com.bai.factory.SingletonFactory;
 import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
 import com.bai.remoting.dto.RpcMessage;
 import com.bai.remoting.dto.RpcRequest;
 import com.bai.remoting.dto.RpcResponse;
@@ -17,6 +18,14 @@ import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 /**
  * Customize the ChannelHandler of the server to process the data sent by the client.
@@ -32,9 +41,18 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
     private final RpcRequestHandler rpcRequestHandler;
+    private final ServerMethodDictionary methodDictionary;
+    // 执行服务方法的线程池，为 null 时在 handler 所在的线程上执行，见 ServerDispatcher
+    private final Executor executor;
 
     public NettyRpcServerHandler() {
+        this(null);
+    }
+
+    public NettyRpcServerHandler(Executor executor) {
         this.rpcRequestHandler = SingletonFactory.getInstance(RpcRequestHandler.class);
+        this.methodDictionary = SingletonFactory.getInstance(ServerMethodDictionary.class);
+        this.executor = executor;
     }
 
     // 在消息入界的过程中处理消息
@@ -47,44 +65,232 @@ public class NettyRpcServerHandler extends ChannelInboundHandlerAdapter {
                 //服务端收到了消息：[RpcMessage(messageType=1,
                 // codec=1,
                 // compress=0,
-                // requestId=0,
-                // data=RpcRequest(requestId=8114d010-4548-4c08-8bc0-1c08eee676a6,
-                // interfaceName=com.bai.HelloService,
+                // requestId=1,
+                // data=RpcRequest(interfaceName=com.bai.HelloService,
                 // methodName=hello,
                 // parameters=[HelloEntity(message=111, description=222)],
                 // paramTypes=[class com.bai.HelloEntity],
                 // version=version2, group=test2))]
-                byte messageType = ((RpcMessage) msg).getMessageType();
-                RpcMessage rpcMessage = new RpcMessage();
-                rpcMessage.setCodec(SerializationTypeEnum.KYRO.getCode());
-                rpcMessage.setCompress(CompressTypeEnum.GZIP.getCode());
-                log.info("为响应数据设置了一些属性 [{}] [{}]", SerializationTypeEnum.KYRO.getCode(), CompressTypeEnum.GZIP.getCode());
-                if (messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
-                    rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
-                    rpcMessage.setData(RpcConstants.PONG);
-                } else {
-                    RpcRequest rpcRequest = (RpcRequest) ((RpcMessage) msg).getData();
-                    // 执行目标方法（客户端需要执行的方法）并返回方法结果
-                    Object result = rpcRequestHandler.handle(rpcRequest);
-                    log.info("服务端得到了结果[{}]", result.toString());
-                    rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
-                    if (ctx.channel().isActive() && ctx.channel().isWritable()) {
-                        RpcResponse<Object> rpcResponse = RpcResponse.success(result, rpcRequest.getRequestId());
-                        rpcMessage.setData(rpcResponse);
-                    } else {
-                        RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
-                        rpcMessage.setData(rpcResponse);
-                        log.error("现在不可写，消息已丢弃...");
-                    }
+                RpcMessage request = (RpcMessage) msg;
+                byte messageType = request.getMessageType();
+                if (messageType == RpcConstants.STREAM_REQUEST_N_TYPE || messageType == RpcConstants.STREAM_CANCEL_TYPE) {
+                    handleStreamControl(ctx, request);
+                    return;
+                }
+                Supplier<RpcMessage> task = messageType == RpcConstants.BATCH_REQUEST_TYPE
+                        ? prepareBatch(ctx, request)
+                        : prepareRequest(ctx, request);
+                // 心跳直接回复；流式调用要在收到客户端的 STREAM_REQUEST_N 之前登记订阅者，也在当前线程上执行
+                if (executor == null || messageType == RpcConstants.HEARTBEAT_REQUEST_TYPE
+                        || (request.getFlags() & RpcConstants.FLAG_STREAMING) != 0) {
+                    run(ctx, request, task);
+                    return;
                 }
-                log.info("服务端现在返回消息[{}]", rpcMessage);
-                ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+                executor.execute(() -> run(ctx, request, task));
             }
         } finally {
             ReferenceCountUtil.release(msg);
         }
     }
 
+    /**
+     * 服务方法抛出的异常只让这一条请求失败，同一连接上的其他调用不受影响
+     */
+    private void run(ChannelHandlerContext ctx, RpcMessage request, Supplier<RpcMessage> task) {
+        RpcMessage response;
+        try {
+            response = task.get();
+        } catch (RuntimeException e) {
+            log.error("服务方法执行失败", e);
+            // 批量请求中的失败已经逐条处理
+            response = request.getMessageType() == RpcConstants.BATCH_REQUEST_TYPE ? null : failedResponse(request);
+        }
+        write(ctx, request, response);
+    }
+
+    private static void write(ChannelHandlerContext ctx, RpcMessage request, RpcMessage rpcMessage) {
+        if (rpcMessage != null) {
+            if (request.getVersion() == RpcConstants.VERSION && request.getData() instanceof RpcRequest
+                    && rpcMessage.getData() instanceof RpcResponse) {
+                // v1 的消息体和旧版本兼容，带回请求体中的 requestId，旧版本的客户端按它匹配响应
+                ((RpcResponse<?>) rpcMessage.getData()).setRequestId(((RpcRequest) request.getData()).getRequestId());
+            }
+            log.info("服务端现在返回消息[{}]", rpcMessage);
+            ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+        }
+    }
+
+    /**
+     * 在当前线程上解析一条请求或心跳对应的方法，返回执行服务方法并生成响应的任务。
+     * 连接内的方法字典必须按请求到达的顺序解析，只有返回的任务可以交给其他线程执行
+     *
+     * @return 任务的结果是需要立即写回的响应；流式、单向和异步的调用由自己写回，结果为 null
+     */
+    private Supplier<RpcMessage> prepareRequest(ChannelHandlerContext ctx, RpcMessage request) {
+        RpcMessage rpcMessage = new RpcMessage();
+        // 按请求的帧格式回复，并带回请求 id 供客户端匹配
+        rpcMessage.setVersion(request.getVersion());
+        rpcMessage.setRequestId(request.getRequestId());
+        // 用请求使用的序列化方式返回响应，序列化方式由客户端按服务选择
+        rpcMessage.setCodec(request.getCodec());
+        rpcMessage.setCompress(CompressRegistry.getConfiguredCode());
+        log.info("为响应数据设置了一些属性 [{}] [{}]", rpcMessage.getCodec(), rpcMessage.getCompress());
+        if (request.getMessageType() == RpcConstants.HEARTBEAT_REQUEST_TYPE) {
+            rpcMessage.setMessageType(RpcConstants.HEARTBEAT_RESPONSE_TYPE);
+            rpcMessage.setData(RpcConstants.PONG);
+            return () -> rpcMessage;
+        }
+        RpcRequest rpcRequest = (RpcRequest) request.getData();
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        ServerMethodDictionary.Entry entry;
+        try {
+            entry = methodDictionary.resolve(ctx.channel(), rpcRequest);
+        } catch (RpcException e) {
+            log.error("无法解析请求的方法", e);
+            RpcMessage failed = failedResponse(request);
+            return () -> failed;
+        }
+        return () -> invoke(ctx, request, rpcMessage, rpcRequest, entry);
+    }
+
+    @SuppressWarnings("unchecked")
+    private RpcMessage invoke(ChannelHandlerContext ctx, RpcMessage request, RpcMessage rpcMessage,
+                              RpcRequest rpcRequest, ServerMethodDictionary.Entry entry) {
+        // 执行目标方法（客户端需要执行的方法）并返回方法结果
+        Object result = entry != null
+                ? rpcRequestHandler.handle(entry.getInvoker(), rpcRequest.getParameters())
+                : rpcRequestHandler.handle(rpcRequest);
+        log.info("服务端得到了结果[{}]", result);
+        if ((request.getFlags() & RpcConstants.FLAG_STREAMING) != 0) {
+            if (result instanceof Publisher) {
+                // 流式调用，由订阅者按客户端的需求逐条写回响应
+                ((Publisher<Object>) result).subscribe(new StreamResponseSubscriber(ctx, request));
+                return null;
+            }
+            log.error("流式调用的服务方法没有返回 Publisher [{}]", rpcRequest.getMethodName());
+            return failedResponse(request);
+        }
+        if ((request.getFlags() & RpcConstants.FLAG_ONEWAY) != 0) {
+            // 单向调用不需要响应
+            return null;
+        }
+        if (result instanceof CompletionStage) {
+            // 异步的服务方法，结果就绪以后再写回响应，不占用处理线程
+            ((CompletionStage<Object>) result).whenComplete((value, error) -> {
+                if (error != null) {
+                    log.error("异步服务方法执行失败", error);
+                    rpcMessage.setData(RpcResponse.fail(RpcResponseCodeEnum.FAIL));
+                } else {
+                    rpcMessage.setData(RpcResponse.success(value));
+                }
+                write(ctx, request, rpcMessage);
+            });
+            return null;
+        }
+        if (ctx.channel().isActive() && ctx.channel().isWritable()) {
+            RpcResponse<Object> rpcResponse = RpcResponse.success(result);
+            rpcMessage.setData(rpcResponse);
+        } else {
+            RpcResponse<Object> rpcResponse = RpcResponse.fail(RpcResponseCodeEnum.FAIL);
+            rpcMessage.setData(rpcResponse);
+            log.error("现在不可写，消息已丢弃...");
+        }
+        return rpcMessage;
+    }
+
+    /**
+     * 拆开批量请求逐条解析，任务逐条执行，同步得到的响应再打包成一个批量响应写回
+     */
+    private Supplier<RpcMessage> prepareBatch(ChannelHandlerContext ctx, RpcMessage request) {
+        RpcBatch batch = (RpcBatch) request.getData();
+        List<RpcMessage> requests = new ArrayList<>(batch.size());
+        List<Supplier<RpcMessage>> tasks = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            RpcMessage item = RpcMessage.builder()
+                    .version(RpcConstants.VERSION_2)
+                    .messageType(RpcConstants.REQUEST_TYPE)
+                    .codec(request.getCodec())
+                    .requestId(batch.getRequestIds()[i])
+                    .data(batch.getItems()[i])
+                    .build();
+            requests.add(item);
+            tasks.add(prepareRequest(ctx, item));
+        }
+        return () -> {
+            long[] requestIds = new long[tasks.size()];
+            Object[] items = new Object[tasks.size()];
+            int count = 0;
+            RpcMessage last = null;
+            for (int i = 0; i < tasks.size(); i++) {
+                RpcMessage response;
+                try {
+                    response = tasks.get(i).get();
+                } catch (RuntimeException e) {
+                    // 一条请求失败只影响批量响应中它自己的位置，不能关闭连接
+                    log.error("服务方法执行失败", e);
+                    response = failedResponse(requests.get(i));
+                }
+                if (response != null) {
+                    requestIds[count] = response.getRequestId();
+                    items[count] = response.getData();
+                    count++;
+                    last = response;
+                }
+            }
+            if (count <= 1) {
+                return last;
+            }
+            return RpcMessage.builder()
+                    .version(RpcConstants.VERSION_2)
+                    .messageType(RpcConstants.BATCH_RESPONSE_TYPE)
+                    .codec(request.getCodec())
+                    .compress(CompressRegistry.getConfiguredCode())
+                    .data(new RpcBatch(Arrays.copyOf(requestIds, count), Arrays.copyOf(items, count)))
+                    .build();
+        };
+    }
+
+    /**
+     * 流式调用的失败作为流的最后一帧返回，否则客户端的订阅者收不到结束信号
+     *
+     * @return 请求失败时的响应；单向调用不需要响应，返回 null
+     */
+    private static RpcMessage failedResponse(RpcMessage request) {
+        if ((request.getFlags() & RpcConstants.FLAG_ONEWAY) != 0) {
+            return null;
+        }
+        byte flags = (request.getFlags() & RpcConstants.FLAG_STREAMING) != 0
+                ? (byte) (RpcConstants.FLAG_STREAMING | RpcConstants.FLAG_END_STREAM) : 0;
+        return RpcMessage.builder()
+                .version(request.getVersion())
+                .messageType(RpcConstants.RESPONSE_TYPE)
+                .flags(flags)
+                .codec(request.getCodec())
+                .compress(CompressRegistry.getConfiguredCode())
+                .requestId(request.getRequestId())
+                .data(RpcResponse.fail(RpcResponseCodeEnum.FAIL))
+                .build();
+    }
+
+    private void handleStreamControl(ChannelHandlerContext ctx, RpcMessage request) {
+        StreamResponseSubscriber subscriber = StreamResponseSubscriber.get(ctx.channel(), request.getRequestId());
+        if (subscriber == null) {
+            // 流已经结束，晚到的控制帧直接忽略
+            return;
+        }
+        if (request.getMessageType() == RpcConstants.STREAM_REQUEST_N_TYPE) {
+            subscriber.request((Long) request.getData());
+        } else {
+            subscriber.cancel();
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        StreamResponseSubscriber.cancelAll(ctx.channel());
+        super.channelInactive(ctx);
+    }
+
     @Override
     public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
         if (evt instanceof IdleStateEvent) {
@@ -0,0 +1,125 @@
+package com.bai.remoting.transport.netty.server;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.utils.RpcConfigUtil;
+import com.bai.utils.RuntimeUtil;
+import com.bai.utils.concurrent.threadpool.ThreadPoolFactoryUtil;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.EventExecutorGroup;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端执行服务方法的方式，由 rpc.server.dispatch 选择：
+ * <ul>
+ *     <li>pinned：默认方式，NettyRpcServerHandler 挂在 DefaultEventExecutorGroup 上，每个连接固定一个业务线程，
+ *     慢调用会阻塞同一连接上后面的所有请求</li>
+ *     <li>inline：直接在 IO 线程上执行，只适合不阻塞的轻量方法</li>
+ *     <li>pool：IO 线程解析请求后交给共享的 ForkJoinPool，请求之间没有连接亲和，空闲线程可以窃取任务</li>
+ *     <li>virtual：每个请求一个虚拟线程，运行时低于 Java 21 时退回 pool</li>
+ * </ul>
+ */
+@Slf4j
+public final class ServerDispatcher {
+    private static final String PINNED = "pinned";
+    private static final String INLINE = "inline";
+    private static final String POOL = "pool";
+    private static final String VIRTUAL = "virtual";
+
+    private final EventExecutorGroup handlerGroup;
+    private final ExecutorService executor;
+
+    private ServerDispatcher(EventExecutorGroup handlerGroup, ExecutorService executor) {
+        this.handlerGroup = handlerGroup;
+        this.executor = executor;
+    }
+
+    public static ServerDispatcher create() {
+        String mode = RpcConfigUtil.getString(RpcConfigEnum.SERVER_DISPATCH, PINNED);
+        int threads = RpcConfigUtil.getInt(RpcConfigEnum.SERVER_DISPATCH_THREADS, 0);
+        if (threads <= 0) {
+            threads = RuntimeUtil.cpus() * 2;
+        }
+        switch (mode) {
+            case INLINE:
+                return new ServerDispatcher(null, null);
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    return new ServerDispatcher(null, virtual);
+                }
+                log.warn("当前运行时不支持虚拟线程，rpc.server.dispatch=virtual 退回 pool");
+                return new ServerDispatcher(null, newWorkStealingPool(threads));
+            case POOL:
+                return new ServerDispatcher(null, newWorkStealingPool(threads));
+            default:
+                if (!PINNED.equals(mode)) {
+                    log.warn("未知的 rpc.server.dispatch [{}]，使用 pinned", mode);
+                }
+                return new ServerDispatcher(new DefaultEventExecutorGroup(threads,
+                        ThreadPoolFactoryUtil.createThreadFactory("service-handler-group", false)), null);
+        }
+    }
+
+    /**
+     * @return pinned 方式下 NettyRpcServerHandler 所在的线程组，其他方式返回 null，handler 在 IO 线程上
+     */
+    public EventExecutorGroup handlerGroup() {
+        return handlerGroup;
+    }
+
+    /**
+     * @return 执行服务方法的线程池；pinned 和 inline 方式返回 null，在 handler 所在的线程上直接执行
+     */
+    public Executor executor() {
+        return executor;
+    }
+
+    public void shutdown() {
+        if (handlerGroup != null) {
+            handlerGroup.shutdownGracefully();
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ExecutorService newWorkStealingPool(int threads) {
+        // asyncMode 为 true，提交的任务按 FIFO 执行
+        return new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("rpc-server-dispatch-" + thread.getPoolIndex());
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * 项目按 Java 8 编译，Java 21 的 Executors.newVirtualThreadPerTaskExecutor 在运行时查找
+     *
+     * @return 运行时不支持虚拟线程时返回 null
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.bai.remoting.transport.netty.server;
+
+import com.bai.enums.RpcErrorMessageEnum;
+import com.bai.exception.RpcException;
+import com.bai.factory.SingletonFactory;
+import com.bai.provider.MethodInvoker;
+import com.bai.provider.ServiceProvider;
+import com.bai.provider.impl.ZkServiceProviderImpl;
+import com.bai.remoting.dto.RpcRequest;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 服务端的连接内方法字典，编号由客户端分配。
+ * 带完整描述的请求会登记编号对应的方法调用器，之后只带编号的请求直接查表，不再按名字查找服务和方法。
+ * 同一个连接的请求总是由同一个线程处理，所以表本身不需要同步
+ */
+@Slf4j
+public class ServerMethodDictionary {
+    private static final AttributeKey<List<Entry>> METHOD_DICTIONARY = AttributeKey.valueOf("serverMethodDictionary");
+    private final ServiceProvider serviceProvider;
+
+    public ServerMethodDictionary() {
+        this.serviceProvider = SingletonFactory.getInstance(ZkServiceProviderImpl.class);
+    }
+
+    /**
+     * @return 请求对应的方法；请求没有编号时返回 null，按名字处理
+     * @throws RpcException 编号在这个连接上没有定义过
+     */
+    public Entry resolve(Channel channel, RpcRequest rpcRequest) {
+        int methodId = rpcRequest.getMethodId();
+        if (methodId <= 0) {
+            return null;
+        }
+        List<Entry> entries = channel.attr(METHOD_DICTIONARY).get();
+        if (entries == null) {
+            entries = new ArrayList<>();
+            channel.attr(METHOD_DICTIONARY).set(entries);
+        }
+        if (rpcRequest.getInterfaceName() != null) {
+            return define(entries, methodId, rpcRequest);
+        }
+        Entry entry = methodId < entries.size() ? entries.get(methodId) : null;
+        if (entry == null) {
+            throw new RpcException(RpcErrorMessageEnum.UNKNOWN_METHOD_ID, "methodId:" + methodId);
+        }
+        return entry;
+    }
+
+    private Entry define(List<Entry> entries, int methodId, RpcRequest rpcRequest) {
+        while (entries.size() <= methodId) {
+            entries.add(null);
+        }
+        Entry entry = entries.get(methodId);
+        if (entry == null) {
+            entry = new Entry(rpcRequest.getInterfaceName(), serviceProvider.getMethodInvoker(rpcRequest));
+            entries.set(methodId, entry);
+            log.info("连接内方法编号[{}] -> [{}]", methodId, entry.getInvoker().getMethod());
+        }
+        return entry;
+    }
+
+    @Getter
+    public static class Entry {
+        private final String interfaceName;
+        private final MethodInvoker invoker;
+
+        Entry(String interfaceName, MethodInvoker invoker) {
+            this.interfaceName = interfaceName;
+            this.invoker = invoker;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.bai.remoting.transport.netty.server;
+
+import com.bai.compress.CompressRegistry;
+import com.bai.enums.RpcResponseCodeEnum;
+import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcMessage;
+import com.bai.remoting.dto.RpcResponse;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.AttributeKey;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 订阅服务方法返回的 Publisher，把每个元素作为一条带 FLAG_STREAMING 的响应写回客户端，结束时发送带 FLAG_END_STREAM 的响应。
+ * 只向 Publisher 请求客户端通过 STREAM_REQUEST_N 给出的需求量，客户端取消或者连接断开时取消订阅
+ */
+@Slf4j
+public class StreamResponseSubscriber implements Subscriber<Object> {
+    private static final AttributeKey<Map<Long, StreamResponseSubscriber>> STREAMS = AttributeKey.valueOf("serverStreams");
+    private final ChannelHandlerContext ctx;
+    private final RpcMessage request;
+    private Subscription subscription;
+    // onSubscribe 之前收到的需求
+    private long pendingDemand;
+    private boolean cancelled;
+
+    public StreamResponseSubscriber(ChannelHandlerContext ctx, RpcMessage request) {
+        this.ctx = ctx;
+        this.request = request;
+        streams(ctx.channel()).put(request.getRequestId(), this);
+    }
+
+    public static StreamResponseSubscriber get(Channel channel, long requestId) {
+        return streams(channel).get(requestId);
+    }
+
+    public static void cancelAll(Channel channel) {
+        for (StreamResponseSubscriber subscriber : new ArrayList<>(streams(channel).values())) {
+            subscriber.cancel();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        long demand;
+        synchronized (this) {
+            if (subscription != null || cancelled) {
+                s.cancel();
+                return;
+            }
+            subscription = s;
+            demand = pendingDemand;
+            pendingDemand = 0;
+        }
+        if (demand > 0) {
+            s.request(demand);
+        }
+    }
+
+    public void request(long n) {
+        Subscription s;
+        synchronized (this) {
+            if (subscription == null) {
+                pendingDemand = pendingDemand + n < 0 ? Long.MAX_VALUE : pendingDemand + n;
+                return;
+            }
+            s = subscription;
+        }
+        s.request(n);
+    }
+
+    public void cancel() {
+        Subscription s;
+        synchronized (this) {
+            cancelled = true;
+            s = subscription;
+        }
+        streams(ctx.channel()).remove(request.getRequestId());
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    @Override
+    public void onNext(Object item) {
+        write(RpcResponse.success(item), RpcConstants.FLAG_STREAMING);
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        log.error("流式调用发生异常", t);
+        streams(ctx.channel()).remove(request.getRequestId());
+        write(RpcResponse.fail(RpcResponseCodeEnum.FAIL), (byte) (RpcConstants.FLAG_STREAMING | RpcConstants.FLAG_END_STREAM));
+    }
+
+    @Override
+    public void onComplete() {
+        streams(ctx.channel()).remove(request.getRequestId());
+        write(RpcResponse.success(null), (byte) (RpcConstants.FLAG_STREAMING | RpcConstants.FLAG_END_STREAM));
+    }
+
+    private void write(RpcResponse<Object> rpcResponse, byte flags) {
+        RpcMessage rpcMessage = new RpcMessage();
+        rpcMessage.setVersion(request.getVersion());
+        rpcMessage.setRequestId(request.getRequestId());
+        rpcMessage.setCodec(request.getCodec());
+        rpcMessage.setCompress(CompressRegistry.getConfiguredCode());
+        rpcMessage.setMessageType(RpcConstants.RESPONSE_TYPE);
+        rpcMessage.setFlags(flags);
+        rpcMessage.setData(rpcResponse);
+        ctx.writeAndFlush(rpcMessage).addListener(ChannelFutureListener.CLOSE_ON_FAILURE);
+    }
+
+    private static Map<Long, StreamResponseSubscriber> streams(Channel channel) {
+        Map<Long, StreamResponseSubscriber> streams = channel.attr(STREAMS).get();
+        if (streams == null) {
+            Map<Long, StreamResponseSubscriber> created = new ConcurrentHashMap<>();
+            streams = channel.attr(STREAMS).setIfAbsent(created);
+            if (streams == null) {
+                streams = created;
+            }
+        }
+        return streams;
+    }
+}
@@ -1,9 +1,28 @@
 package com.bai.serialize;
 
+import com.bai.exception.SerializeException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
- * 序列化接口，所有序列化类都要实现这个接口
+ * 序列化接口，所有序列化类都要实现这个接口。
+ * 除了内置实现，还可以在 META-INF/services/com.bai.serialize.Serializer 中声明自己的实现，
+ * 由 {@link SerializerRegistry} 按 {@link #getCode()} 注册
  */
 public interface Serializer {
+    /**
+     * @return 写进消息头 codec 字节的编号，通信双方要一致
+     */
+    byte getCode();
+
+    /**
+     * @return 序列化方式的名字，用于 rpc.serialization.type 和 RpcServiceConfig 中的配置
+     */
+    String getName();
+
     /**
      * 序列化
      * @param obj 要序列化的对象
@@ -20,4 +39,40 @@ public interface Serializer {
      * @return 反序列化的对象
      */
     <T> T deserialize(byte[] bytes, Class<T> clazz);
+
+    /**
+     * 把对象直接序列化到输出流中，调用方负责关闭流。
+     * 默认实现退化为先得到 byte[] 再写出，实现类应当覆盖它来避免中间数组。
+     *
+     * @param obj          要序列化的对象
+     * @param outputStream 目标输出流，例如包装了出站 ByteBuf 的 ByteBufOutputStream
+     */
+    default void serialize(Object obj, OutputStream outputStream) {
+        try {
+            outputStream.write(serialize(obj));
+        } catch (IOException e) {
+            throw new SerializeException("序列化失败！");
+        }
+    }
+
+    /**
+     * 从输入流中直接反序列化对象，调用方负责关闭流。
+     * 默认实现退化为先把流读成 byte[]，实现类应当覆盖它来避免中间数组。
+     *
+     * @param inputStream 源输入流，例如包装了入站帧的 ByteBufInputStream
+     * @param clazz       目标类
+     * @return 反序列化的对象
+     */
+    default <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = inputStream.read(buffer)) > -1) {
+                out.write(buffer, 0, n);
+            }
+            return deserialize(out.toByteArray(), clazz);
+        } catch (IOException e) {
+            throw new SerializeException("反序列化失败！");
+        }
+    }
 }
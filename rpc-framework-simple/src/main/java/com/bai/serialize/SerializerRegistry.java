@@ -0,0 +1,86 @@
+package com.bai.serialize;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.enums.SerializationTypeEnum;
+import com.bai.serialize.kyro.KryoSerializer;
+import com.bai.serialize.protostuff.ProtostuffSerializer;
+import com.bai.utils.RpcConfigUtil;
+import com.bai.utils.StringUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按消息头中的 codec 字节保存序列化实现，每种实现进程内只创建一次。
+ * 内置 kryo 和 protostuff，classpath 上通过 {@link ServiceLoader} 声明的实现会在启动时一并注册
+ */
+@Slf4j
+public class SerializerRegistry {
+    private static final Map<Byte, Serializer> SERIALIZER_MAP = new ConcurrentHashMap<>();
+    private static final Map<String, Serializer> NAME_MAP = new ConcurrentHashMap<>();
+    private static final String DEFAULT_SERIALIZATION = SerializationTypeEnum.KYRO.getName();
+    private static final byte CONFIGURED_CODE;
+
+    static {
+        register(new KryoSerializer());
+        register(new ProtostuffSerializer());
+        for (Serializer serializer : ServiceLoader.load(Serializer.class)) {
+            log.info("通过 SPI 注册序列化实现[{}]:[{}]", serializer.getName(), serializer.getClass().getName());
+            register(serializer);
+        }
+        String name = RpcConfigUtil.getString(RpcConfigEnum.SERIALIZATION_TYPE, DEFAULT_SERIALIZATION);
+        Serializer serializer = NAME_MAP.get(name);
+        if (serializer == null) {
+            log.error("未知的序列化方式[{}]，使用默认的[{}]", name, DEFAULT_SERIALIZATION);
+            serializer = NAME_MAP.get(DEFAULT_SERIALIZATION);
+        }
+        CONFIGURED_CODE = serializer.getCode();
+    }
+
+    private SerializerRegistry() {
+    }
+
+    /**
+     * 注册序列化实现，编号相同的会覆盖之前的实现，通信双方必须注册相同的实现。
+     * v2 帧头只用 4 位表示序列化方式，所以编号必须在 0~15 之间
+     */
+    public static void register(Serializer serializer) {
+        if ((serializer.getCode() & ~0x0F) != 0) {
+            throw new IllegalArgumentException("Serialization code must be in [0, 15]: " + serializer.getCode());
+        }
+        SERIALIZER_MAP.put(serializer.getCode(), serializer);
+        NAME_MAP.put(serializer.getName(), serializer);
+    }
+
+    public static Serializer getSerializer(byte code) {
+        Serializer serializer = SERIALIZER_MAP.get(code);
+        if (serializer == null) {
+            throw new IllegalArgumentException("Unknown serialization type: " + code);
+        }
+        return serializer;
+    }
+
+    /**
+     * @param name 序列化方式的名字，为空时返回 rpc.serialization.type 配置的方式
+     * @return 写进消息头的 codec 编号
+     */
+    public static byte getCode(String name) {
+        if (StringUtil.isBlank(name)) {
+            return CONFIGURED_CODE;
+        }
+        Serializer serializer = NAME_MAP.get(name);
+        if (serializer == null) {
+            throw new IllegalArgumentException("Unknown serialization type: " + name);
+        }
+        return serializer.getCode();
+    }
+
+    /**
+     * @return rpc.serialization.type 配置的序列化方式
+     */
+    public static byte getConfiguredCode() {
+        return CONFIGURED_CODE;
+    }
+}
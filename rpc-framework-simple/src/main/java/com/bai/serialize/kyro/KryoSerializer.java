@@ -1,60 +1,154 @@
 package com.bai.serialize.kyro;
 
+import com.bai.enums.RpcConfigEnum;
+import com.bai.enums.SerializationTypeEnum;
 import com.bai.exception.SerializeException;
+import com.bai.remoting.dto.RpcBatch;
 import com.bai.remoting.dto.RpcRequest;
+import com.bai.remoting.dto.RpcResponse;
 import com.bai.serialize.Serializer;
+import com.bai.utils.RpcConfigUtil;
+import com.bai.utils.RuntimeUtil;
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.util.function.Supplier;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Kryo序列化类，Kryo的序列化效率很高，但只与Java语言兼容
  */
 @Slf4j
 public class KryoSerializer implements Serializer {
+    private static final int INITIAL_BUFFER_SIZE = 1024 * 4;
     /**
-     * Kryo不是线程安全的，需要使用ThreadLocal保持对象
+     * 用完后缓冲区超过这个大小就换回初始大小，避免一次大消息让池中的实例一直占着大数组
      */
-    private final ThreadLocal<Kryo> kryoThreadLocal = ThreadLocal.withInitial(new Supplier<Kryo>() {
-        @Override
-        public Kryo get() {
-            Kryo kryo = new Kryo();
-            kryo.register(RpcRequest.class);
-            kryo.register(RpcRequest.class);
-            return kryo;
-        }
-    });
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024 * 64;
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    /**
+     * Kryo不是线程安全的，并且创建成本很高（要建立类注册和序列化器缓存），所以在进程内共享一个有界的池。
+     * 池满时归还的实例直接丢弃，池空时临时新建一个
+     */
+    private static final BlockingQueue<KryoHolder> KRYO_POOL = new ArrayBlockingQueue<>(
+            RpcConfigUtil.getInt(RpcConfigEnum.KRYO_POOL_SIZE, RuntimeUtil.cpus() * 2));
+
+    @Override
+    public byte getCode() {
+        return SerializationTypeEnum.KYRO.getCode();
+    }
+
+    @Override
+    public String getName() {
+        return SerializationTypeEnum.KYRO.getName();
+    }
 
     @Override
     public byte[] serialize(Object obj) {
-        try (ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-             Output output = new Output(byteArrayOutputStream)) {
-            Kryo kryo = kryoThreadLocal.get();
+        KryoHolder holder = borrow();
+        try {
+            Output output = holder.output;
             // Object->byte:将对象序列化为byte数组
-            kryo.writeObject(output, obj);
-            kryoThreadLocal.remove();
+            holder.kryo.writeObject(output, obj);
             return output.toBytes();
         } catch (Exception e) {
             throw new SerializeException("序列化失败！");
+        } finally {
+            release(holder);
         }
     }
 
     @Override
     public <T> T deserialize(byte[] bytes, Class<T> clazz) {
-        try (ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
-             Input input = new Input(byteArrayInputStream)) {
-            Kryo kryo = kryoThreadLocal.get();
+        KryoHolder holder = borrow();
+        try {
+            Input input = holder.arrayInput;
+            input.setBuffer(bytes);
             // byte->Object:从byte数组中反序列化出对对象
-            Object o = kryo.readObject(input, clazz);
-            kryoThreadLocal.remove();
+            Object o = holder.kryo.readObject(input, clazz);
             return clazz.cast(o);
         } catch (Exception e) {
             throw new SerializeException("反序列化失败！");
+        } finally {
+            release(holder);
+        }
+    }
+
+    @Override
+    public void serialize(Object obj, OutputStream outputStream) {
+        KryoHolder holder = borrow();
+        try {
+            // Output 的缓冲区写满后直接刷到 outputStream，不会再拼出完整的 byte[]
+            Output output = holder.output;
+            output.setOutputStream(outputStream);
+            holder.kryo.writeObject(output, obj);
+            output.flush();
+        } catch (Exception e) {
+            throw new SerializeException("序列化失败！");
+        } finally {
+            release(holder);
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        KryoHolder holder = borrow();
+        try {
+            Input input = holder.streamInput;
+            input.setInputStream(inputStream);
+            Object o = holder.kryo.readObject(input, clazz);
+            return clazz.cast(o);
+        } catch (Exception e) {
+            throw new SerializeException("反序列化失败！");
+        } finally {
+            release(holder);
+        }
+    }
+
+    private static KryoHolder borrow() {
+        KryoHolder holder = KRYO_POOL.poll();
+        return holder != null ? holder : new KryoHolder();
+    }
+
+    private static void release(KryoHolder holder) {
+        holder.reset();
+        KRYO_POOL.offer(holder);
+    }
+
+    /**
+     * 一个 Kryo 实例和它复用的 Input/Output
+     */
+    private static class KryoHolder {
+        private final Kryo kryo;
+        // 可增长的输出缓冲区，byte[] 模式下承载整个对象，流模式下作为写出缓冲
+        private final Output output;
+        // 流模式下的读缓冲
+        private final Input streamInput;
+        // byte[] 模式下直接包装调用方的数组，不需要自己的缓冲区
+        private final Input arrayInput;
+
+        KryoHolder() {
+            kryo = new Kryo();
+            kryo.register(RpcRequest.class);
+            kryo.register(RpcResponse.class);
+            kryo.register(RpcBatch.class);
+            output = new Output(INITIAL_BUFFER_SIZE, -1);
+            streamInput = new Input(INITIAL_BUFFER_SIZE);
+            arrayInput = new Input();
+        }
+
+        void reset() {
+            // setOutputStream 同时把写位置归零
+            output.setOutputStream(null);
+            if (output.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+                output.setBuffer(new byte[INITIAL_BUFFER_SIZE], -1);
+            }
+            streamInput.setInputStream(null);
+            arrayInput.setBuffer(EMPTY_BYTES);
         }
     }
 }
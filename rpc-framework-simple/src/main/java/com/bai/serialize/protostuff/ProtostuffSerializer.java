@@ -0,0 +1,87 @@
+package com.bai.serialize.protostuff;
+
+import com.bai.enums.SerializationTypeEnum;
+import com.bai.exception.SerializeException;
+import com.bai.serialize.Serializer;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 基于 schema 的 Protostuff 序列化，按字段编号写出 protobuf 兼容的格式，不写类名，
+ * 对 RpcRequest/RpcResponse 这类固定结构的 DTO 通常比 Kryo 更小。
+ * schema 由 {@link RuntimeSchema} 按类生成一次并缓存
+ */
+public class ProtostuffSerializer implements Serializer {
+    /**
+     * LinkedBuffer 用完后 clear 即可复用，每个线程一份
+     */
+    private static final ThreadLocal<LinkedBuffer> BUFFER_THREAD_LOCAL = ThreadLocal.withInitial(
+            () -> LinkedBuffer.allocate(LinkedBuffer.DEFAULT_BUFFER_SIZE));
+
+    @Override
+    public byte getCode() {
+        return SerializationTypeEnum.PROTOSTUFF.getCode();
+    }
+
+    @Override
+    public String getName() {
+        return SerializationTypeEnum.PROTOSTUFF.getName();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] serialize(Object obj) {
+        Schema<Object> schema = (Schema<Object>) RuntimeSchema.getSchema(obj.getClass());
+        LinkedBuffer buffer = BUFFER_THREAD_LOCAL.get();
+        try {
+            return ProtostuffIOUtil.toByteArray(obj, schema, buffer);
+        } catch (Exception e) {
+            throw new SerializeException("序列化失败！");
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(byte[] bytes, Class<T> clazz) {
+        Schema<T> schema = RuntimeSchema.getSchema(clazz);
+        try {
+            T message = schema.newMessage();
+            ProtostuffIOUtil.mergeFrom(bytes, message, schema);
+            return message;
+        } catch (Exception e) {
+            throw new SerializeException("反序列化失败！");
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void serialize(Object obj, OutputStream outputStream) {
+        Schema<Object> schema = (Schema<Object>) RuntimeSchema.getSchema(obj.getClass());
+        LinkedBuffer buffer = BUFFER_THREAD_LOCAL.get();
+        try {
+            ProtostuffIOUtil.writeTo(outputStream, obj, schema, buffer);
+        } catch (Exception e) {
+            throw new SerializeException("序列化失败！");
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public <T> T deserialize(InputStream inputStream, Class<T> clazz) {
+        Schema<T> schema = RuntimeSchema.getSchema(clazz);
+        try {
+            T message = schema.newMessage();
+            ProtostuffIOUtil.mergeFrom(inputStream, message, schema);
+            return message;
+        } catch (Exception e) {
+            throw new SerializeException("反序列化失败！");
+        }
+    }
+}
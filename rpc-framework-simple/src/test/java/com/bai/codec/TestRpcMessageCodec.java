@@ -0,0 +1,366 @@
+package com.bai.codec;
+
+import com.bai.compress.CompressRegistry;
+import com.bai.enums.CompressTypeEnum;
+import com.bai.enums.RpcConfigEnum;
+import com.bai.enums.SerializationTypeEnum;
+import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
+import com.bai.remoting.dto.RpcMessage;
+import com.bai.remoting.dto.RpcRequest;
+import com.bai.remoting.dto.RpcResponse;
+import com.bai.remoting.transport.netty.client.RequestBatchingHandler;
+import com.bai.remoting.transport.netty.codec.RpcMessageDecoder;
+import com.bai.remoting.transport.netty.codec.RpcMessageEncoder;
+import com.bai.serialize.Serializer;
+import com.bai.serialize.SerializerRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.EncoderException;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import lombok.Data;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRpcMessageCodec {
+    // 帧格式版本和 zeroCopy 是两个独立的开关，测试覆盖所有组合
+    private static final byte[] VERSIONS = {RpcConstants.VERSION, RpcConstants.VERSION_2};
+
+    /**
+     * 旧版本的 RpcRequest，字段和顺序与升级前一致
+     */
+    @Data
+    public static class BaselineRpcRequest {
+        private String requestId;
+        private String interfaceName;
+        private String methodName;
+        private Object[] parameters;
+        private Class<?>[] paramTypes;
+        private String version;
+        private String group;
+    }
+
+    /**
+     * 旧版本的 RpcResponse
+     */
+    @Data
+    public static class BaselineRpcResponse {
+        private String requestId;
+        private Integer code;
+        private String message;
+        private Object data;
+    }
+
+    private static RpcRequest newRequest() {
+        return RpcRequest.builder()
+                .interfaceName("com.bai.HelloService")
+                .methodName("hello")
+                .parameters(new Object[]{"apple", 1})
+                .paramTypes(new Class<?>[]{String.class, Integer.class})
+                .group("test")
+                .version("v1")
+                .build();
+    }
+
+    private static RpcMessage roundTrip(boolean zeroCopy, RpcMessage rpcMessage) {
+        EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder(zeroCopy));
+        encoder.writeOutbound(rpcMessage);
+        ByteBuf frame = encoder.readOutbound();
+        EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+        decoder.writeInbound(frame);
+        return decoder.readInbound();
+    }
+
+    @Test
+    public void testRequestRoundTrip() {
+        for (SerializationTypeEnum codec : SerializationTypeEnum.values()) {
+            for (byte version : VERSIONS) {
+                for (boolean zeroCopy : new boolean[]{true, false}) {
+                    RpcMessage decoded = roundTrip(zeroCopy, RpcMessage.builder()
+                            .version(version)
+                            .requestId(42)
+                            .messageType(RpcConstants.REQUEST_TYPE)
+                            .codec(codec.getCode())
+                            .compress(CompressTypeEnum.GZIP.getCode())
+                            .data(newRequest())
+                            .build());
+                    assertEquals(version, decoded.getVersion());
+                    assertEquals(codec.getCode(), decoded.getCodec());
+                    assertEquals(42, decoded.getRequestId());
+                    RpcRequest rpcRequest = (RpcRequest) decoded.getData();
+                    assertEquals("hello", rpcRequest.getMethodName());
+                    assertEquals("com.bai.HelloServicetestv1", rpcRequest.getRpcServiceName());
+                    assertArrayEquals(new Object[]{"apple", 1}, rpcRequest.getParameters());
+                    assertArrayEquals(new Class<?>[]{String.class, Integer.class}, rpcRequest.getParamTypes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMethodIdOnlyInV2() {
+        for (byte version : new byte[]{RpcConstants.VERSION, RpcConstants.VERSION_2}) {
+            RpcRequest request = newRequest();
+            request.setMethodId(9);
+            RpcMessage decoded = roundTrip(true, RpcMessage.builder()
+                    .version(version)
+                    .requestId(42)
+                    .messageType(RpcConstants.REQUEST_TYPE)
+                    .codec(SerializationTypeEnum.KYRO.getCode())
+                    .compress(CompressTypeEnum.GZIP.getCode())
+                    .data(request)
+                    .build());
+            // v1 的消息体不携带方法编号
+            assertEquals(version == RpcConstants.VERSION_2 ? 9 : 0, ((RpcRequest) decoded.getData()).getMethodId());
+        }
+    }
+
+    @Test
+    public void testV1BodyMatchesBaseline() {
+        for (SerializationTypeEnum codec : SerializationTypeEnum.values()) {
+            Serializer serializer = SerializerRegistry.getSerializer(codec.getCode());
+            RpcRequest request = newRequest();
+            request.setRequestId("42");
+            request.setMethodId(9);
+            BaselineRpcRequest baselineRequest = serializer.deserialize(serializer.serialize(request), BaselineRpcRequest.class);
+            assertEquals("42", baselineRequest.getRequestId());
+            assertEquals("hello", baselineRequest.getMethodName());
+            assertEquals("test", baselineRequest.getGroup());
+            assertArrayEquals(new Object[]{"apple", 1}, baselineRequest.getParameters());
+            RpcRequest fromBaseline = serializer.deserialize(serializer.serialize(baselineRequest), RpcRequest.class);
+            assertEquals("42", fromBaseline.getRequestId());
+            assertEquals("com.bai.HelloServicetestv1", fromBaseline.getRpcServiceName());
+
+            RpcResponse<Object> response = RpcResponse.success("result");
+            response.setRequestId("42");
+            BaselineRpcResponse baselineResponse = serializer.deserialize(serializer.serialize(response), BaselineRpcResponse.class);
+            assertEquals("42", baselineResponse.getRequestId());
+            assertEquals("result", baselineResponse.getData());
+            RpcResponse<?> fromBaselineResponse = serializer.deserialize(serializer.serialize(baselineResponse), RpcResponse.class);
+            assertEquals("42", fromBaselineResponse.getRequestId());
+            assertEquals(response.getCode(), fromBaselineResponse.getCode());
+        }
+    }
+
+    @Test
+    public void testEncodeFailureFailsWrite() {
+        for (byte version : VERSIONS) {
+            for (boolean zeroCopy : new boolean[]{true, false}) {
+                EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder(zeroCopy));
+                // 没有注册的序列化方式，编码失败要让这次写入失败，而不是只打日志
+                ChannelFuture future = encoder.writeAndFlush(RpcMessage.builder()
+                        .version(version)
+                        .requestId(7)
+                        .messageType(RpcConstants.REQUEST_TYPE)
+                        .codec((byte) 15)
+                        .data(newRequest())
+                        .build());
+                assertFalse(future.isSuccess());
+                assertTrue(future.cause() instanceof EncoderException);
+                assertNull(encoder.readOutbound());
+                encoder.finishAndReleaseAll();
+            }
+        }
+    }
+
+    @Test
+    public void testResponseRoundTrip() {
+        for (SerializationTypeEnum codec : SerializationTypeEnum.values()) {
+            for (byte version : VERSIONS) {
+                for (boolean zeroCopy : new boolean[]{true, false}) {
+                    RpcMessage decoded = roundTrip(zeroCopy, RpcMessage.builder()
+                            .version(version)
+                            .requestId(42)
+                            .messageType(RpcConstants.RESPONSE_TYPE)
+                            .codec(codec.getCode())
+                            .compress(CompressTypeEnum.GZIP.getCode())
+                            .data(RpcResponse.success("result"))
+                            .build());
+                    assertEquals(version, decoded.getVersion());
+                    assertEquals(42, decoded.getRequestId());
+                    RpcResponse<?> rpcResponse = (RpcResponse<?>) decoded.getData();
+                    assertEquals("result", rpcResponse.getData());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBatchedRequestsRoundTrip() {
+        for (SerializationTypeEnum codec : SerializationTypeEnum.values()) {
+            // 等待时间很长，只有攒够两条才会发出批量帧
+            EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder(), new RequestBatchingHandler(2, 1_000_000));
+            for (int i = 1; i <= 3; i++) {
+                RpcRequest request = newRequest();
+                request.setMethodId(i);
+                encoder.writeOutbound(RpcMessage.builder()
+                        .version(RpcConstants.VERSION_2)
+                        .requestId(i)
+                        .messageType(RpcConstants.REQUEST_TYPE)
+                        .codec(codec.getCode())
+                        .compress(CompressTypeEnum.NONE.getCode())
+                        .data(request)
+                        .build());
+            }
+            // 第一条请求到达时认为请求稀疏，直接发送；后两条凑成一批
+            ByteBuf single = encoder.readOutbound();
+            ByteBuf batch = encoder.readOutbound();
+            single.release();
+            EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+            decoder.writeInbound(batch);
+            RpcMessage decoded = decoder.readInbound();
+            assertEquals(RpcConstants.BATCH_REQUEST_TYPE, decoded.getMessageType());
+            RpcBatch rpcBatch = (RpcBatch) decoded.getData();
+            assertArrayEquals(new long[]{2, 3}, rpcBatch.getRequestIds());
+            assertEquals("hello", ((RpcRequest) rpcBatch.getItems()[1]).getMethodName());
+            assertEquals(2, ((RpcRequest) rpcBatch.getItems()[0]).getMethodId());
+            assertEquals(3, ((RpcRequest) rpcBatch.getItems()[1]).getMethodId());
+        }
+    }
+
+    /**
+     * @return 很容易压缩的字符串，放进 RpcResponse 序列化以后正好 bodyLength 字节
+     */
+    private static String compressible(Serializer serializer, int bodyLength) {
+        StringBuilder sb = new StringBuilder();
+        while (serializer.serialize(RpcResponse.success(sb.toString())).length < bodyLength) {
+            sb.append('a');
+        }
+        assertEquals(bodyLength, serializer.serialize(RpcResponse.success(sb.toString())).length);
+        return sb.toString();
+    }
+
+    @Test
+    public void testCompressOnlyBodiesAboveMinSize() {
+        int minSize = CompressRegistry.getMinSize();
+        Serializer serializer = SerializerRegistry.getSerializer(SerializationTypeEnum.KYRO.getCode());
+        // 消息体比阈值少一个字节时不压缩，达到阈值时压缩
+        String below = compressible(serializer, minSize - 1);
+        String atMinSize = compressible(serializer, minSize);
+        for (CompressTypeEnum compressType : CompressTypeEnum.values()) {
+            for (byte version : VERSIONS) {
+                for (boolean zeroCopy : new boolean[]{true, false}) {
+                    for (String data : new String[]{below, atMinSize}) {
+                        EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder(zeroCopy));
+                        encoder.writeOutbound(RpcMessage.builder()
+                                .version(version)
+                                .messageType(RpcConstants.RESPONSE_TYPE)
+                                .codec(SerializationTypeEnum.KYRO.getCode())
+                                .compress(compressType.getCode())
+                                .data(RpcResponse.success(data))
+                                .build());
+                        ByteBuf frame = encoder.readOutbound();
+                        byte expected = data == atMinSize ? compressType.getCode() : CompressTypeEnum.NONE.getCode();
+                        // v1 帧头第 12 个字节是压缩类型；v2 在第 4 个字节的低 4 位
+                        int compressByte = version == RpcConstants.VERSION
+                                ? frame.getByte(frame.readerIndex() + 11)
+                                : frame.getByte(frame.readerIndex() + 3) & 0x0F;
+                        String combination = compressType + " v" + version + " zeroCopy=" + zeroCopy + " length=" + data.length();
+                        assertEquals(expected, compressByte, combination);
+                        EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+                        decoder.writeInbound(frame);
+                        RpcMessage decoded = decoder.readInbound();
+                        assertEquals(data, ((RpcResponse<?>) decoded.getData()).getData(), combination);
+                        assertEquals(expected, decoded.getCompress(), combination);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testV2HeaderIsCompact() {
+        long requestId = Long.MAX_VALUE - 1;
+        for (int i = 0; i < 2; i++) {
+            EmbeddedChannel encoder = new EmbeddedChannel(new RpcMessageEncoder());
+            encoder.writeOutbound(RpcMessage.builder()
+                    .version(RpcConstants.VERSION_2)
+                    .requestId(i == 0 ? 1 : requestId)
+                    .messageType(RpcConstants.HEARTBEAT_REQUEST_TYPE)
+                    .codec(SerializationTypeEnum.KYRO.getCode())
+                    .flags(RpcConstants.FLAG_ONEWAY)
+                    .build());
+            ByteBuf frame = encoder.readOutbound();
+            // 5 字节定长部分 + 1 字节 id + 1 字节长度；最大的 id 占 9 字节
+            assertEquals(i == 0 ? 7 : 15, frame.readableBytes());
+            // 逐字节到达，验证半包
+            EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+            while (frame.isReadable()) {
+                decoder.writeInbound(frame.readRetainedSlice(1));
+            }
+            frame.release();
+            RpcMessage decoded = decoder.readInbound();
+            assertEquals(RpcConstants.VERSION_2, decoded.getVersion());
+            assertEquals(i == 0 ? 1 : requestId, decoded.getRequestId());
+            assertEquals(RpcConstants.FLAG_ONEWAY, decoded.getFlags());
+            assertEquals(RpcConstants.PING, decoded.getData());
+        }
+    }
+
+    @Test
+    public void testLargeBodySplitIntoContinuationFrames() {
+        System.setProperty(RpcConfigEnum.CODEC_CHUNK_SIZE.getPropertyValue(), "1024");
+        try {
+            StringBuilder sb = new StringBuilder();
+            Random random = new Random(1);
+            for (int i = 0; i < 5000; i++) {
+                sb.append(random.nextInt());
+            }
+            String large = sb.toString();
+            EmbeddedChannel encoder = new EmbeddedChannel(new ChunkedWriteHandler(), new RpcMessageEncoder());
+            encoder.writeOutbound(RpcMessage.builder()
+                    .version(RpcConstants.VERSION_2)
+                    .requestId(7)
+                    .messageType(RpcConstants.RESPONSE_TYPE)
+                    .codec(SerializationTypeEnum.KYRO.getCode())
+                    .compress(CompressTypeEnum.NONE.getCode())
+                    .data(RpcResponse.success(large))
+                    .build());
+            EmbeddedChannel decoder = new EmbeddedChannel(new RpcMessageDecoder());
+            int frames = 0;
+            ByteBuf frame;
+            while ((frame = encoder.readOutbound()) != null) {
+                frames++;
+                decoder.writeInbound(frame);
+            }
+            assertTrue(frames > 1);
+            RpcMessage decoded = decoder.readInbound();
+            assertEquals(7, decoded.getRequestId());
+            assertEquals(0, decoded.getFlags() & RpcConstants.FLAG_CONTINUATION);
+            assertEquals(large, ((RpcResponse<?>) decoded.getData()).getData());
+            assertNull(decoder.readInbound());
+        } finally {
+            System.clearProperty(RpcConfigEnum.CODEC_CHUNK_SIZE.getPropertyValue());
+        }
+    }
+
+    @Test
+    public void testStreamControlRoundTrip() {
+        RpcMessage requestN = roundTrip(true, RpcMessage.builder()
+                .version(RpcConstants.VERSION_2)
+                .requestId(3)
+                .messageType(RpcConstants.STREAM_REQUEST_N_TYPE)
+                .flags(RpcConstants.FLAG_STREAMING)
+                .codec(SerializationTypeEnum.KYRO.getCode())
+                .data(Long.MAX_VALUE)
+                .build());
+        assertEquals(Long.MAX_VALUE, requestN.getData());
+        RpcMessage cancel = roundTrip(true, RpcMessage.builder()
+                .version(RpcConstants.VERSION_2)
+                .requestId(3)
+                .messageType(RpcConstants.STREAM_CANCEL_TYPE)
+                .flags(RpcConstants.FLAG_STREAMING)
+                .codec(SerializationTypeEnum.KYRO.getCode())
+                .build());
+        assertEquals(RpcConstants.STREAM_CANCEL_TYPE, cancel.getMessageType());
+        assertEquals(3, cancel.getRequestId());
+    }
+}
@@ -0,0 +1,41 @@
+package com.bai.limit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestConcurrencyLimiter {
+
+    @Test
+    public void testRejectWhenLimitReached() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 1, 100);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.onIgnore();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testLimitFollowsRtt() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100);
+        // 满负载且 RTT 稳定：没有排队，上限增大
+        for (int i = 0; i < 5; i++) {
+            while (limiter.tryAcquire()) {
+            }
+            limiter.onSuccess(1_000_000);
+        }
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10);
+        // RTT 变成原来的 10 倍：服务端在排队，上限减小
+        for (int i = 0; i < 20; i++) {
+            while (limiter.tryAcquire()) {
+            }
+            limiter.onSuccess(10_000_000);
+        }
+        assertTrue(limiter.getLimit() < grown);
+        int beforeDrop = limiter.getLimit();
+        limiter.onDropped();
+        assertTrue(limiter.getLimit() < beforeDrop);
+    }
+}
@@ -0,0 +1,57 @@
+package com.bai.provider;
+
+import com.bai.config.RpcServiceConfig;
+import com.bai.exception.RpcException;
+import com.bai.provider.impl.ZkServiceProviderImpl;
+import com.bai.remoting.dto.RpcRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestMethodInvoker {
+
+    public interface CalcService {
+        int add(int a, int b);
+
+        String name();
+    }
+
+    private static class CalcServiceImpl implements CalcService {
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override
+        public String name() {
+            return "calc";
+        }
+    }
+
+    private static RpcRequest request(String methodName, Class<?>[] paramTypes, Object[] parameters) {
+        return RpcRequest.builder()
+                .interfaceName(CalcService.class.getCanonicalName())
+                .group("g")
+                .version("v")
+                .methodName(methodName)
+                .paramTypes(paramTypes)
+                .parameters(parameters)
+                .build();
+    }
+
+    @Test
+    public void testInvokersResolvedOnAdd() throws Throwable {
+        ServiceProvider serviceProvider = new ZkServiceProviderImpl();
+        serviceProvider.addService(RpcServiceConfig.builder().group("g").version("v").service(new CalcServiceImpl()).build());
+
+        MethodInvoker add = serviceProvider.getMethodInvoker(request("add", new Class<?>[]{int.class, int.class}, null));
+        assertEquals(5, add.invoke(new Object[]{2, 3}));
+        MethodInvoker name = serviceProvider.getMethodInvoker(request("name", new Class<?>[0], null));
+        assertEquals("calc", name.invoke(null));
+
+        assertThrows(RpcException.class, () -> serviceProvider.getMethodInvoker(request("add", new Class<?>[]{long.class}, null)));
+        assertThrows(RpcException.class, () -> serviceProvider.getMethodInvoker(
+                RpcRequest.builder().interfaceName("missing").methodName("add").build()));
+    }
+}
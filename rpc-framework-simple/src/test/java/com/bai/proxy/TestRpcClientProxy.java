@@ -0,0 +1,224 @@
+package com.bai.proxy;
+
+import com.bai.annotation.RpcCacheable;
+import com.bai.annotation.SingleFlight;
+import com.bai.remoting.dto.RpcRequest;
+import com.bai.remoting.dto.RpcResponse;
+import com.bai.remoting.transport.RpcRequestTransport;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestRpcClientProxy {
+
+    public interface DictService {
+        @RpcCacheable(ttl = 1, maxEntries = 10)
+        String lookup(String key, int[] codes);
+
+        String echo(String value);
+
+        CompletableFuture<String> echoAsync(String value);
+
+        @SingleFlight
+        CompletableFuture<String> load(String key);
+    }
+
+    public interface CounterService {
+        long add(long base, int delta);
+
+        boolean enabled(double ratio);
+
+        void reset();
+    }
+
+    public interface LegacyService {
+        Future<String> load(String key);
+    }
+
+    /**
+     * 不经过网络，把第一个参数作为结果返回
+     */
+    private static class EchoTransport implements RpcRequestTransport {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public Object sendRpcRequest(RpcRequest rpcRequest) {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture(RpcResponse.success(rpcRequest.getParameters()[0]));
+        }
+    }
+
+    @Test
+    public void testCacheableMethod() {
+        EchoTransport transport = new EchoTransport();
+        DictService service = new RpcClientProxy(transport).getProxy(DictService.class);
+        assertEquals("a", service.lookup("a", new int[]{1, 2}));
+        assertEquals("a", service.lookup("a", new int[]{1, 2}));
+        assertEquals(1, transport.calls.get());
+        assertEquals("a", service.lookup("a", new int[]{3}));
+        assertEquals(2, transport.calls.get());
+        service.echo("b");
+        service.echo("b");
+        assertEquals(4, transport.calls.get());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        CompletableFuture<RpcResponse<Object>> pending = new CompletableFuture<>();
+        AtomicInteger calls = new AtomicInteger();
+        RpcRequestTransport transport = rpcRequest -> {
+            calls.incrementAndGet();
+            return pending;
+        };
+        DictService service = new RpcClientProxy(transport).getProxy(DictService.class);
+        CompletableFuture<String> first = service.load("k");
+        CompletableFuture<String> second = service.load("k");
+        assertEquals(1, calls.get());
+        pending.complete(RpcResponse.success("v"));
+        assertEquals("v", first.get());
+        assertEquals("v", second.get());
+        // 前一个调用结束以后重新发送
+        service.load("k");
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testAsyncCalls() throws Exception {
+        DictService service = new RpcClientProxy(new EchoTransport()).getProxy(DictService.class);
+        assertEquals("c", service.echoAsync("c").get());
+        assertEquals("d", RpcContext.async(() -> service.echo("d")).get());
+    }
+
+    @Test
+    public void testGeneratedStub() {
+        RpcRequestTransport transport = rpcRequest -> {
+            Object[] args = rpcRequest.getParameters();
+            Object result;
+            if ("add".equals(rpcRequest.getMethodName())) {
+                result = (Long) args[0] + (Integer) args[1];
+            } else if ("enabled".equals(rpcRequest.getMethodName())) {
+                result = (Double) args[0] > 0.5;
+            } else if ("reset".equals(rpcRequest.getMethodName())) {
+                result = null;
+            } else {
+                result = args[0];
+            }
+            return CompletableFuture.completedFuture(RpcResponse.success(result));
+        };
+        RpcClientProxy rpcClientProxy = new RpcClientProxy(transport);
+        CounterService counter = rpcClientProxy.getStub(CounterService.class);
+        assertFalse(Proxy.isProxyClass(counter.getClass()));
+        assertEquals(42L, counter.add(40L, 2));
+        assertTrue(counter.enabled(0.9));
+        counter.reset();
+
+        DictService service = rpcClientProxy.getStub(DictService.class);
+        assertEquals("e", service.echo("e"));
+        assertEquals("f", RpcContext.async(() -> service.echo("f")).join());
+    }
+
+    @Test
+    public void testRejectPlainFuture() {
+        RpcClientProxy rpcClientProxy = new RpcClientProxy(new EchoTransport());
+        assertThrows(IllegalArgumentException.class, () -> rpcClientProxy.getStub(LegacyService.class));
+        LegacyService service = rpcClientProxy.getJdkProxy(LegacyService.class);
+        assertThrows(IllegalArgumentException.class, () -> service.load("k"));
+    }
+
+    @Test
+    public void testObjectMethodsStayLocal() {
+        EchoTransport transport = new EchoTransport();
+        RpcClientProxy rpcClientProxy = new RpcClientProxy(transport);
+        for (DictService service : new DictService[]{rpcClientProxy.getStub(DictService.class), rpcClientProxy.getJdkProxy(DictService.class)}) {
+            assertEquals(service, service);
+            assertNotEquals(service, rpcClientProxy.getStub(DictService.class));
+            assertEquals(System.identityHashCode(service), service.hashCode());
+            assertTrue(service.toString().startsWith(service.getClass().getName()));
+        }
+        assertEquals(0, transport.calls.get());
+    }
+
+    @Test
+    public void testFallBackToJdkProxy() throws Exception {
+        // 接口由看不到 RpcStubInvoker 的类加载器加载，存根类无法链接
+        URL testClasses = TestRpcClientProxy.class.getProtectionDomain().getCodeSource().getLocation();
+        try (URLClassLoader isolated = new URLClassLoader(new URL[]{testClasses}, null)) {
+            Class<?> iface = isolated.loadClass(CounterService.class.getName());
+            RpcRequestTransport transport = rpcRequest -> CompletableFuture.completedFuture(RpcResponse.success(7L));
+            Object proxy = new RpcClientProxy(transport).getProxy(iface);
+            assertTrue(Proxy.isProxyClass(proxy.getClass()));
+            assertEquals(7L, iface.getMethod("add", long.class, int.class).invoke(proxy, 1L, 2));
+        }
+    }
+
+    @Test
+    public void testStubDoesNotPinClassLoader() throws Exception {
+        WeakReference<ClassLoader> loader = generateStubInDisposableLoader();
+        for (int i = 0; i < 50 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertNull(loader.get());
+    }
+
+    private static WeakReference<ClassLoader> generateStubInDisposableLoader() throws Exception {
+        ClassLoader disposable = new ChildFirstLoader(CounterService.class.getName());
+        Class<?> iface = disposable.loadClass(CounterService.class.getName());
+        RpcRequestTransport transport = rpcRequest -> CompletableFuture.completedFuture(RpcResponse.success(7L));
+        Object stub = new RpcClientProxy(transport).getProxy(iface);
+        assertFalse(Proxy.isProxyClass(stub.getClass()));
+        assertEquals(7L, iface.getMethod("add", long.class, int.class).invoke(stub, 1L, 2));
+        return new WeakReference<>(disposable);
+    }
+
+    /**
+     * 自己定义指定的类，其他类交给应用类加载器，存根类可以链接到 RpcStubInvoker
+     */
+    private static class ChildFirstLoader extends ClassLoader {
+        private final String name;
+
+        ChildFirstLoader(String name) {
+            super(TestRpcClientProxy.class.getClassLoader());
+            this.name = name;
+        }
+
+        @Override
+        protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(className)) {
+                return super.loadClass(className, resolve);
+            }
+            synchronized (getClassLoadingLock(className)) {
+                Class<?> loaded = findLoadedClass(className);
+                if (loaded != null) {
+                    return loaded;
+                }
+                try (InputStream in = getParent().getResourceAsStream(className.replace('.', '/') + ".class")) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[4096];
+                    for (int n; (n = in.read(buffer)) > 0; ) {
+                        out.write(buffer, 0, n);
+                    }
+                    return defineClass(className, out.toByteArray(), 0, out.size());
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(className, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.bai.registry;
+
+import com.bai.enums.RpcConfigEnum;
+import com.bai.exception.RpcException;
+import com.bai.registry.health.ProviderHealthTracker;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestProviderHealthTracker {
+    private static final List<String> PROVIDERS = Arrays.asList("127.0.0.1:9001", "127.0.0.1:9002", "127.0.0.1:9003");
+    private static final String BAD_URL = "127.0.0.1:9001";
+    private static final InetSocketAddress BAD = new InetSocketAddress("127.0.0.1", 9001);
+
+    /**
+     * 负载均衡总是优先选择 BAD_URL
+     */
+    private static String preferBad(List<String> candidates) {
+        return candidates.contains(BAD_URL) ? BAD_URL : candidates.get(0);
+    }
+
+    private static ProviderHealthTracker shortEjectionTracker() {
+        String key = RpcConfigEnum.CLIENT_OUTLIER_BASE_EJECTION_MS.getPropertyValue();
+        System.setProperty(key, "50");
+        try {
+            return new ProviderHealthTracker();
+        } finally {
+            System.clearProperty(key);
+        }
+    }
+
+    @Test
+    public void testEjectAndProbe() throws Exception {
+        ProviderHealthTracker tracker = shortEjectionTracker();
+        long beforeEjection = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            tracker.onFailure(BAD, System.nanoTime());
+        }
+        assertEquals("127.0.0.1:9002", tracker.select(PROVIDERS, TestProviderHealthTracker::preferBad));
+        Thread.sleep(100);
+        // 摘除到期后半开；负载均衡没有选中它时探测机会仍然保留
+        assertEquals("127.0.0.1:9002", tracker.select(PROVIDERS, candidates -> candidates.get(1)));
+        // 两个调用方同时选中它，只有先占用探测机会的一个能拿到，另一个换一个地址
+        AtomicReference<String> first = new AtomicReference<>();
+        String second = tracker.select(PROVIDERS, candidates -> {
+            if (first.get() == null) {
+                first.set(tracker.select(PROVIDERS, TestProviderHealthTracker::preferBad));
+            }
+            return preferBad(candidates);
+        });
+        assertEquals(BAD_URL, first.get());
+        assertEquals("127.0.0.1:9002", second);
+        // 探测请求还没有结果，之后的调用方也拿不到
+        assertEquals("127.0.0.1:9002", tracker.select(PROVIDERS, TestProviderHealthTracker::preferBad));
+        // 半开之前发出的请求晚到的失败不会再次摘除，探测成功以后恢复
+        tracker.onFailure(BAD, beforeEjection);
+        tracker.onSuccess(BAD, 1_000_000);
+        assertEquals(BAD_URL, tracker.select(PROVIDERS, TestProviderHealthTracker::preferBad));
+        assertEquals(BAD_URL, tracker.select(PROVIDERS, TestProviderHealthTracker::preferBad));
+    }
+
+    @Test
+    public void testFallBackWhenEveryProviderEjected() {
+        ProviderHealthTracker tracker = new ProviderHealthTracker();
+        for (String provider : PROVIDERS) {
+            String[] hostPort = provider.split(":");
+            InetSocketAddress address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+            for (int i = 0; i < 5; i++) {
+                tracker.onFailure(address, System.nanoTime());
+            }
+        }
+        // 所有地址都被摘除时从全部地址中选择
+        List<List<String>> candidateLists = new ArrayList<>();
+        assertEquals("127.0.0.1:9003", tracker.select(PROVIDERS, candidates -> {
+            candidateLists.add(candidates);
+            return candidates.get(2);
+        }));
+        assertEquals(Collections.singletonList(PROVIDERS), candidateLists);
+        List<String> single = Collections.singletonList(BAD_URL);
+        assertEquals(BAD_URL, tracker.select(single, candidates -> candidates.get(0)));
+    }
+
+    @Test
+    public void testOnlyOneProbeForLastProvider() throws Exception {
+        ProviderHealthTracker tracker = shortEjectionTracker();
+        for (int i = 0; i < 5; i++) {
+            tracker.onFailure(BAD, System.nanoTime());
+        }
+        Thread.sleep(100);
+        // 两个调用方同时选中唯一一个半开的地址时，只有占到探测机会的调用方发给它
+        List<String> single = Collections.singletonList(BAD_URL);
+        AtomicReference<String> first = new AtomicReference<>();
+        assertThrows(RpcException.class, () -> tracker.select(single, candidates -> {
+            if (first.get() == null) {
+                first.set(tracker.select(single, TestProviderHealthTracker::preferBad));
+            }
+            return candidates.get(0);
+        }));
+        assertEquals(BAD_URL, first.get());
+    }
+}
@@ -0,0 +1,28 @@
+package com.bai.transport;
+
+import com.bai.exception.RpcException;
+import com.bai.remoting.transport.netty.client.NettyRpcClient;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestNettyRpcClientConnect {
+
+    @Test
+    public void testConnectFailureIsTyped() throws Exception {
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        NettyRpcClient nettyRpcClient = new NettyRpcClient();
+        try {
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+            assertThrows(RpcException.class, () -> nettyRpcClient.getChannel(address));
+        } finally {
+            nettyRpcClient.close();
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.bai.transport;
+
+import com.bai.config.RpcServiceConfig;
+import com.bai.enums.RpcResponseCodeEnum;
+import com.bai.factory.SingletonFactory;
+import com.bai.provider.impl.ZkServiceProviderImpl;
+import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcBatch;
+import com.bai.remoting.dto.RpcMessage;
+import com.bai.remoting.dto.RpcRequest;
+import com.bai.remoting.dto.RpcResponse;
+import com.bai.remoting.transport.netty.client.NettyRpcClient;
+import com.bai.remoting.transport.netty.client.NettyRpcClientHandler;
+import com.bai.remoting.transport.netty.client.RpcStreamSubscription;
+import com.bai.remoting.transport.netty.client.UnprocessedRequests;
+import com.bai.remoting.transport.netty.server.NettyRpcServerHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestServerDispatch {
+
+    public interface SlowService {
+        String slow();
+
+        String fast();
+
+        String boom();
+
+        Publisher<String> streamBoom();
+
+        String notStream();
+    }
+
+    private static class SlowServiceImpl implements SlowService {
+        private volatile CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public String slow() {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "slow";
+        }
+
+        @Override
+        public String fast() {
+            return "fast";
+        }
+
+        @Override
+        public String boom() {
+            throw new IllegalStateException("boom");
+        }
+
+        @Override
+        public Publisher<String> streamBoom() {
+            throw new IllegalStateException("boom");
+        }
+
+        @Override
+        public String notStream() {
+            return "not a stream";
+        }
+    }
+
+    private static RpcMessage request(long requestId, String methodName) {
+        return RpcMessage.builder()
+                .version(RpcConstants.VERSION_2)
+                .messageType(RpcConstants.REQUEST_TYPE)
+                .requestId(requestId)
+                .data(rpcRequest(methodName))
+                .build();
+    }
+
+    private static RpcRequest rpcRequest(String methodName) {
+        return RpcRequest.builder()
+                .interfaceName(SlowService.class.getCanonicalName())
+                .group("dispatch")
+                .version("")
+                .methodName(methodName)
+                .paramTypes(new Class<?>[0])
+                .parameters(new Object[0])
+                .build();
+    }
+
+    // 同名服务只会登记一次，所有测试共用一个服务对象
+    private static final SlowServiceImpl SERVICE = new SlowServiceImpl();
+
+    private static SlowServiceImpl register() {
+        SingletonFactory.getInstance(ZkServiceProviderImpl.class)
+                .addService(RpcServiceConfig.builder().group("dispatch").version("").service(SERVICE).build());
+        SERVICE.release = new CountDownLatch(1);
+        return SERVICE;
+    }
+
+    /**
+     * 把写出的响应收集到 responses 中，可以在其他线程写
+     */
+    private static EmbeddedChannel channel(BlockingQueue<RpcMessage> responses, NettyRpcServerHandler handler) {
+        return new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+                responses.add((RpcMessage) msg);
+                promise.setSuccess();
+            }
+        }, handler);
+    }
+
+    @Test
+    public void testSlowCallDoesNotBlockConnection() throws Exception {
+        SlowServiceImpl service = register();
+        BlockingQueue<RpcMessage> responses = new LinkedBlockingQueue<>();
+        ExecutorService executor = new ForkJoinPool(2);
+        EmbeddedChannel channel = channel(responses, new NettyRpcServerHandler(executor));
+
+        channel.writeInbound(request(1, "slow"));
+        channel.writeInbound(request(2, "fast"));
+        // 同一个连接上的慢调用还没有返回，后面的请求已经得到响应
+        RpcMessage first = responses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertEquals(2, first.getRequestId());
+        assertEquals("fast", ((RpcResponse<?>) first.getData()).getData());
+
+        service.release.countDown();
+        RpcMessage second = responses.poll(5, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertEquals(1, second.getRequestId());
+        executor.shutdown();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testFailedBatchItem() {
+        register();
+        BlockingQueue<RpcMessage> responses = new LinkedBlockingQueue<>();
+        EmbeddedChannel channel = channel(responses, new NettyRpcServerHandler());
+        channel.writeInbound(RpcMessage.builder()
+                .version(RpcConstants.VERSION_2)
+                .messageType(RpcConstants.BATCH_REQUEST_TYPE)
+                .data(new RpcBatch(new long[]{1, 2}, new Object[]{rpcRequest("boom"), rpcRequest("fast")}))
+                .build());
+        // 失败的请求只占批量响应中自己的位置，连接保持打开
+        RpcMessage response = responses.poll();
+        assertNotNull(response);
+        assertEquals(RpcConstants.BATCH_RESPONSE_TYPE, response.getMessageType());
+        RpcBatch batch = (RpcBatch) response.getData();
+        assertArrayEquals(new long[]{1, 2}, batch.getRequestIds());
+        assertEquals(RpcResponseCodeEnum.FAIL.getCode(), ((RpcResponse<?>) batch.getItems()[0]).getCode());
+        assertEquals("fast", ((RpcResponse<?>) batch.getItems()[1]).getData());
+        assertTrue(channel.isOpen());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testFailedCallKeepsConnection() throws Exception {
+        register();
+        ExecutorService executor = new ForkJoinPool(2);
+        for (NettyRpcServerHandler handler : new NettyRpcServerHandler[]{new NettyRpcServerHandler(), new NettyRpcServerHandler(executor)}) {
+            BlockingQueue<RpcMessage> responses = new LinkedBlockingQueue<>();
+            EmbeddedChannel channel = channel(responses, handler);
+            channel.writeInbound(request(5, "boom"));
+            RpcMessage response = responses.poll(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(5, response.getRequestId());
+            assertEquals(RpcResponseCodeEnum.FAIL.getCode(), ((RpcResponse<?>) response.getData()).getCode());
+            assertTrue(channel.isOpen());
+            channel.finishAndReleaseAll();
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testFailedStreamEndsSubscription() {
+        register();
+        NettyRpcClient nettyRpcClient = new NettyRpcClient();
+        UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        try {
+            // 服务方法抛出异常，以及流式调用的方法没有返回 Publisher
+            for (String methodName : new String[]{"streamBoom", "notStream"}) {
+                AtomicReference<Subscription> subscription = new AtomicReference<>();
+                AtomicReference<Throwable> error = new AtomicReference<>();
+                RpcRequest rpcRequest = rpcRequest(methodName);
+                nettyRpcClient.sendStreamRequest(rpcRequest, RpcServiceConfig.builder().build())
+                        .subscribe(new Subscriber<Object>() {
+                            @Override
+                            public void onSubscribe(Subscription s) {
+                                subscription.set(s);
+                            }
+
+                            @Override
+                            public void onNext(Object item) {
+                            }
+
+                            @Override
+                            public void onError(Throwable t) {
+                                error.set(t);
+                            }
+
+                            @Override
+                            public void onComplete() {
+                            }
+                        });
+                EmbeddedChannel client = new EmbeddedChannel(new NettyRpcClientHandler());
+                long requestId = unprocessedRequests.putStream(client, (RpcStreamSubscription) subscription.get());
+
+                BlockingQueue<RpcMessage> responses = new LinkedBlockingQueue<>();
+                EmbeddedChannel server = channel(responses, new NettyRpcServerHandler());
+                server.writeInbound(RpcMessage.builder()
+                        .version(RpcConstants.VERSION_2)
+                        .messageType(RpcConstants.REQUEST_TYPE)
+                        .flags(RpcConstants.FLAG_STREAMING)
+                        .requestId(requestId)
+                        .data(rpcRequest)
+                        .build());
+                RpcMessage response = responses.poll();
+                assertNotNull(response);
+                assertEquals(RpcConstants.FLAG_STREAMING | RpcConstants.FLAG_END_STREAM, response.getFlags());
+                assertNull(error.get());
+                // 失败帧作为流的最后一帧交给订阅者
+                client.writeInbound(response);
+                assertNotNull(error.get(), methodName);
+                server.finishAndReleaseAll();
+                client.finishAndReleaseAll();
+            }
+        } finally {
+            nettyRpcClient.close();
+        }
+    }
+}
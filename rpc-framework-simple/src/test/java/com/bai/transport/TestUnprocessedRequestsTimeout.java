@@ -0,0 +1,49 @@
+package com.bai.transport;
+
+import com.bai.exception.RpcTimeoutException;
+import com.bai.factory.SingletonFactory;
+import com.bai.metrics.RpcClientMetrics;
+import com.bai.remoting.constants.RpcConstants;
+import com.bai.remoting.dto.RpcResponse;
+import com.bai.remoting.transport.netty.client.UnprocessedRequests;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestUnprocessedRequestsTimeout {
+
+    @Test
+    public void testTimeoutRemovesRequest() throws Exception {
+        UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        RpcClientMetrics metrics = SingletonFactory.getInstance(RpcClientMetrics.class);
+        long timeoutsBefore = metrics.getTimeouts();
+        EmbeddedChannel channel = new EmbeddedChannel();
+        CompletableFuture<RpcResponse<Object>> future = new CompletableFuture<>();
+        long requestId = unprocessedRequests.put(channel, RpcConstants.VERSION_2, future, 50);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RpcTimeoutException);
+        assertEquals(0, unprocessedRequests.pendingCount(channel));
+        assertEquals(timeoutsBefore + 1, metrics.getTimeouts());
+        // 超时以后迟到的响应直接丢弃
+        unprocessedRequests.complete(channel, requestId, RpcResponse.success("late"));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void testResponseBeforeTimeout() throws Exception {
+        UnprocessedRequests unprocessedRequests = SingletonFactory.getInstance(UnprocessedRequests.class);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        CompletableFuture<RpcResponse<Object>> future = new CompletableFuture<>();
+        long requestId = unprocessedRequests.put(channel, RpcConstants.VERSION_2, future, 50);
+        unprocessedRequests.complete(channel, requestId, RpcResponse.success("ok"));
+        Thread.sleep(200);
+        assertEquals("ok", future.get().getData());
+        channel.finishAndReleaseAll();
+    }
+}